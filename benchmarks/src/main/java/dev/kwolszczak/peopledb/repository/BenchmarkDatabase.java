@@ -0,0 +1,94 @@
+package dev.kwolszczak.peopledb.repository;
+
+import dev.kwolszczak.peopledb.model.Address;
+import dev.kwolszczak.peopledb.model.Person;
+import dev.kwolszczak.peopledb.model.Region;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory H2 fixtures for benchmarks. Every open() creates a new database with the PEOPLE and ADDRESS tables,
+ * data is generated from a seeded Random, so every run works with the same dataset.
+ */
+final class BenchmarkDatabase {
+
+    static final long SEED = 42;
+    private static final AtomicInteger DATABASES = new AtomicInteger();
+    private static final String[] FIRST_NAMES = {"John", "Bobby", "Lisa", "Anna", "Tom", "Kate", "Mark", "Eve"};
+    private static final String[] LAST_NAMES = {"Smith", "Johnson", "Brown", "Taylor", "Miller", "Davis"};
+    private static final Region[] REGIONS = Region.values();
+
+    private BenchmarkDatabase() {
+    }
+
+    /**
+     * @return connection to a new database, auto commit off
+     */
+    static Connection open() throws SQLException {
+        Connection connection = DriverManager.getConnection(
+                STR."jdbc:h2:mem:bench\{DATABASES.incrementAndGet()};DB_CLOSE_DELAY=-1");
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("""
+                    CREATE TABLE ADDRESS (ID BIGINT AUTO_INCREMENT PRIMARY KEY, STREET_ADDRESS VARCHAR(255),
+                    ADDRESS2 VARCHAR(255), CITY VARCHAR(255), STATE VARCHAR(255), POSTCODE VARCHAR(255),
+                    COUNTY VARCHAR(255), REGION VARCHAR(255), COUNTRY VARCHAR(255))""");
+            statement.execute("""
+                    CREATE TABLE PEOPLE (ID BIGINT AUTO_INCREMENT PRIMARY KEY, FIRST_NAME VARCHAR(255),
+                    LAST_NAME VARCHAR(255), DOB TIMESTAMP, SALARY DECIMAL(15,2), EMAIL VARCHAR(255),
+                    HOME_ADDRESS BIGINT REFERENCES ADDRESS(ID), BUSINESS_ADDRESS BIGINT REFERENCES ADDRESS(ID),
+                    PARENT_ID BIGINT REFERENCES PEOPLE(ID))""");
+        }
+        connection.setAutoCommit(false);
+        return connection;
+    }
+
+    /**
+     * Saves and commits given number of generated people.
+     * @return ids of saved people
+     */
+    static List<Long> seed(Connection connection, Random random, int count, boolean withAddresses) throws SQLException {
+        List<Person> people = people(random, count, withAddresses);
+        new PeopleRepository(connection).saveAll(people);
+        connection.commit();
+        List<Long> ids = new ArrayList<>(count);
+        people.forEach(person -> ids.add(person.getId()));
+        return ids;
+    }
+
+    static List<Person> people(Random random, int count, boolean withAddresses) {
+        List<Person> people = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            people.add(person(random, withAddresses));
+        }
+        return people;
+    }
+
+    static Person person(Random random, boolean withAddresses) {
+        Person person = new Person(
+                FIRST_NAMES[random.nextInt(FIRST_NAMES.length)],
+                LAST_NAMES[random.nextInt(LAST_NAMES.length)],
+                ZonedDateTime.of(1950 + random.nextInt(55), 1 + random.nextInt(12), 1 + random.nextInt(28), 0, 0, 0, 0, ZoneId.of("+0")));
+        person.setSalary(BigDecimal.valueOf(30_000 + random.nextInt(170_000), 2));
+        person.setEmail(STR."\{person.getFirstName().toLowerCase()}.\{random.nextInt(1_000_000)}@example.com");
+        if (withAddresses) {
+            person.setHomeAddress(address(random));
+            person.setBusinessAddress(address(random));
+        }
+        return person;
+    }
+
+    private static Address address(Random random) {
+        return new Address(STR."\{random.nextInt(9_999)} Beale St.", STR."apt. \{random.nextInt(99)}", "New York", "WA",
+                STR."\{10_000 + random.nextInt(89_999)}", "United States", "Fulton County", REGIONS[random.nextInt(REGIONS.length)]);
+    }
+}
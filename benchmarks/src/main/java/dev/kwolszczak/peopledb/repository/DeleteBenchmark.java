@@ -0,0 +1,58 @@
+package dev.kwolszczak.peopledb.repository;
+
+import dev.kwolszczak.peopledb.model.Person;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bulk delete(T...) of count people. People to delete are saved before every invocation, outside of measurement.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@State(Scope.Thread)
+public class DeleteBenchmark {
+
+    @Param({"1", "100"})
+    int count;
+
+    private Connection connection;
+    private PeopleRepository repo;
+    private Random random;
+    private Person[] people;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        connection = BenchmarkDatabase.open();
+        repo = new PeopleRepository(connection);
+        random = new Random(BenchmarkDatabase.SEED);
+    }
+
+    @Setup(Level.Invocation)
+    public void savePeople() {
+        people = BenchmarkDatabase.people(random, count, false).toArray(Person[]::new);
+        repo.saveAll(Arrays.asList(people));
+    }
+
+    @TearDown(Level.Iteration)
+    public void rollback() throws SQLException {
+        connection.rollback();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    @Benchmark
+    public void delete() throws SQLException {
+        repo.delete(people);
+    }
+}
@@ -0,0 +1,58 @@
+package dev.kwolszczak.peopledb.repository;
+
+import dev.kwolszczak.peopledb.model.Person;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * findById of random seeded people, half of them with home and business address joined.
+ * The repository has no identity map nor second-level cache, every call goes to the database.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@State(Scope.Thread)
+public class FindBenchmark {
+
+    @Param({"10000"})
+    int people;
+
+    private Connection connection;
+    private PeopleRepository repo;
+    private List<Long> idsWithAddresses;
+    private List<Long> idsWithoutAddresses;
+    private Random random;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        connection = BenchmarkDatabase.open();
+        Random seeded = new Random(BenchmarkDatabase.SEED);
+        idsWithAddresses = BenchmarkDatabase.seed(connection, seeded, people / 2, true);
+        idsWithoutAddresses = BenchmarkDatabase.seed(connection, seeded, people / 2, false);
+        repo = new PeopleRepository(connection);
+        random = new Random(BenchmarkDatabase.SEED);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    @Benchmark
+    public Optional<Person> findByIdWithAddresses() {
+        return repo.findById(idsWithAddresses.get(random.nextInt(idsWithAddresses.size())));
+    }
+
+    @Benchmark
+    public Optional<Person> findByIdWithoutAddresses() {
+        return repo.findById(idsWithoutAddresses.get(random.nextInt(idsWithoutAddresses.size())));
+    }
+}
@@ -0,0 +1,56 @@
+package dev.kwolszczak.peopledb.repository;
+
+import dev.kwolszczak.peopledb.model.CrudOperation;
+import dev.kwolszczak.peopledb.model.Person;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PeopleRepository.mapForFind alone: the people with addresses join is read once into a scrollable result set,
+ * every operation moves to the next row and maps it, no query is executed.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@State(Scope.Thread)
+public class MappingBenchmark {
+
+    @Param({"1000"})
+    int rows;
+
+    private Connection connection;
+    private PeopleRepository repo;
+    private PreparedStatement ps;
+    private ResultSet rs;
+    private int row;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        connection = BenchmarkDatabase.open();
+        BenchmarkDatabase.seed(connection, new Random(BenchmarkDatabase.SEED), rows, true);
+        repo = new PeopleRepository(connection);
+        ps = connection.prepareStatement(repo.getSql(CrudOperation.FIND_ALL), ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+        rs = ps.executeQuery();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        rs.close();
+        ps.close();
+        connection.close();
+    }
+
+    @Benchmark
+    public Person mapForFind() throws SQLException {
+        rs.absolute(row++ % rows + 1);
+        return repo.mapForFind(rs);
+    }
+}
@@ -0,0 +1,64 @@
+package dev.kwolszczak.peopledb.repository;
+
+import dev.kwolszczak.peopledb.model.Person;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * save() vs saveAll(). Generating the people is part of every operation, rows are rolled back after each iteration,
+ * so the tables don't grow through the run.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@State(Scope.Thread)
+public class SaveBenchmark {
+
+    @Param({"false", "true"})
+    boolean withAddresses;
+
+    @Param({"100"})
+    int batchSize;
+
+    private Connection connection;
+    private PeopleRepository repo;
+    private Random random;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        connection = BenchmarkDatabase.open();
+        repo = new PeopleRepository(connection);
+        random = new Random(BenchmarkDatabase.SEED);
+    }
+
+    @TearDown(Level.Iteration)
+    public void rollback() throws SQLException {
+        connection.rollback();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    @Benchmark
+    public Person save() {
+        return repo.save(BenchmarkDatabase.person(random, withAddresses));
+    }
+
+    /**
+     * One operation saves batchSize people.
+     */
+    @Benchmark
+    public int saveAll() {
+        List<Person> people = BenchmarkDatabase.people(random, batchSize, withAddresses);
+        return repo.saveAll(people, batchSize);
+    }
+}
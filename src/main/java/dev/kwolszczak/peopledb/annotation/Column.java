@@ -0,0 +1,18 @@
+package dev.kwolszczak.peopledb.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Field stored in a column of the entity table, see EntityMetadata.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface Column {
+    /**
+     * Column name, by default the field name in upper snake case (firstName is FIRST_NAME).
+     */
+    String value() default "";
+}
@@ -0,0 +1,19 @@
+package dev.kwolszczak.peopledb.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Optimistic lock column, a long or int field incremented by every update. Update of an entity whose version
+ * is not the one in the table anymore fails with OptimisticLockException, see EntityMetadata.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface Version {
+    /**
+     * Column name, by default the field name in upper snake case.
+     */
+    String value() default "";
+}
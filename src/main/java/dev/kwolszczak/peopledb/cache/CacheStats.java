@@ -0,0 +1,13 @@
+package dev.kwolszczak.peopledb.cache;
+
+/**
+ * Snapshot of cache counters.
+ * @param evictions entries dropped because of size limit or expired TTL
+ */
+public record CacheStats(long hits, long misses, long evictions, int size) {
+
+    public double hitRate() {
+        long requests = hits + misses;
+        return requests == 0 ? 0 : (double) hits / requests;
+    }
+}
@@ -0,0 +1,42 @@
+package dev.kwolszczak.peopledb.cache;
+
+import dev.kwolszczak.peopledb.model.Entity;
+
+/**
+ * Second level cache of entities by id, shared by repositories and threads, so implementations must be thread safe.
+ * Repository invalidates an entry on every write made through it. Repositories put and get copies of their entities,
+ * a cached instance is never handed to the caller.
+ */
+public interface EntityCache<T extends Entity> {
+
+    /**
+     * @return cached entity or null
+     */
+    T get(Long id);
+
+    void put(Long id, T entity);
+
+    /**
+     * Called before the entity is read from the database.
+     * @return token of the load for putLoaded()
+     */
+    long startLoad(Long id);
+
+    /**
+     * Ends the load started with startLoad() and caches the entity read by it, unless the id was invalidated
+     * (or loaded again) in the meantime - the entity could be older than the write behind the invalidation.
+     * @param entity null if nothing was read
+     */
+    void putLoaded(Long id, T entity, long loadToken);
+
+    void invalidate(Long id);
+
+    void invalidateAll();
+
+    CacheStats stats();
+
+    @SuppressWarnings("unchecked")
+    static <T extends Entity> EntityCache<T> none() {
+        return (EntityCache<T>) NoEntityCache.INSTANCE;
+    }
+}
@@ -0,0 +1,162 @@
+package dev.kwolszczak.peopledb.cache;
+
+import dev.kwolszczak.peopledb.model.Entity;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Size bounded LRU cache with optional time to live of entries.
+ * Access order is kept by LinkedHashMap guarded by one lock, counters are lock free.
+ * Loads in progress are tracked per id under the same lock, invalidation of an id makes its load stale.
+ */
+public class LruEntityCache<T extends Entity> implements EntityCache<T> {
+
+    private record CacheEntry<T>(T entity, long expiresAtNanos) {
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<Long, CacheEntry<T>> entries;
+    // id -> token of the latest load of the id, guarded by the lock
+    private final Map<Long, Long> loads = new HashMap<>();
+    private long lastLoadToken;
+    private final long ttlNanos;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public LruEntityCache(int maxSize) {
+        this(maxSize, Duration.ZERO);
+    }
+
+    /**
+     * @param ttl time after which an entry expires, Duration.ZERO means entries don't expire
+     */
+    public LruEntityCache(int maxSize, Duration ttl) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException(STR."Max size must be positive, was: \{maxSize}");
+        }
+        if (ttl.isNegative()) {
+            throw new IllegalArgumentException(STR."TTL can't be negative, was: \{ttl}");
+        }
+        this.ttlNanos = ttl.toNanos();
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, CacheEntry<T>> eldest) {
+                if (size() > maxSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    @Override
+    public T get(Long id) {
+        CacheEntry<T> entry;
+        lock.lock();
+        try {
+            entry = entries.get(id);
+            if (entry != null && isExpired(entry)) {
+                entries.remove(id);
+                evictions.increment();
+                entry = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.entity();
+    }
+
+    @Override
+    public void put(Long id, T entity) {
+        if (id == null || entity == null) {
+            return;
+        }
+        CacheEntry<T> entry = new CacheEntry<>(entity, ttlNanos == 0 ? Long.MAX_VALUE : System.nanoTime() + ttlNanos);
+        lock.lock();
+        try {
+            entries.put(id, entry);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long startLoad(Long id) {
+        lock.lock();
+        try {
+            long token = ++lastLoadToken;
+            loads.put(id, token);
+            return token;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void putLoaded(Long id, T entity, long loadToken) {
+        lock.lock();
+        try {
+            Long latest = loads.get(id);
+            if (latest == null || latest != loadToken) {
+                // invalidated or loaded again since the load started
+                return;
+            }
+            loads.remove(id);
+            if (entity != null) {
+                entries.put(id, new CacheEntry<>(entity, ttlNanos == 0 ? Long.MAX_VALUE : System.nanoTime() + ttlNanos));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void invalidate(Long id) {
+        lock.lock();
+        try {
+            entries.remove(id);
+            loads.remove(id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void invalidateAll() {
+        lock.lock();
+        try {
+            entries.clear();
+            loads.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public CacheStats stats() {
+        int size;
+        lock.lock();
+        try {
+            size = entries.size();
+        } finally {
+            lock.unlock();
+        }
+        return new CacheStats(hits.sum(), misses.sum(), evictions.sum(), size);
+    }
+
+    private boolean isExpired(CacheEntry<T> entry) {
+        return ttlNanos != 0 && System.nanoTime() - entry.expiresAtNanos() > 0;
+    }
+}
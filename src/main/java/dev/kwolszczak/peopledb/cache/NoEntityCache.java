@@ -0,0 +1,42 @@
+package dev.kwolszczak.peopledb.cache;
+
+import dev.kwolszczak.peopledb.model.Entity;
+
+final class NoEntityCache implements EntityCache<Entity> {
+
+    static final NoEntityCache INSTANCE = new NoEntityCache();
+
+    private NoEntityCache() {
+    }
+
+    @Override
+    public Entity get(Long id) {
+        return null;
+    }
+
+    @Override
+    public void put(Long id, Entity entity) {
+    }
+
+    @Override
+    public long startLoad(Long id) {
+        return 0;
+    }
+
+    @Override
+    public void putLoaded(Long id, Entity entity, long loadToken) {
+    }
+
+    @Override
+    public void invalidate(Long id) {
+    }
+
+    @Override
+    public void invalidateAll() {
+    }
+
+    @Override
+    public CacheStats stats() {
+        return new CacheStats(0, 0, 0, 0);
+    }
+}
@@ -0,0 +1,7 @@
+package dev.kwolszczak.peopledb.exception;
+
+public class OptimisticLockException extends RuntimeException {
+    public OptimisticLockException(String message) {
+        super(message);
+    }
+}
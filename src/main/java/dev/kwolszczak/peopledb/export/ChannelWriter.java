@@ -0,0 +1,83 @@
+package dev.kwolszczak.peopledb.export;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.zip.GZIPOutputStream;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Buffered writer of an export file. Bytes are collected in one fixed buffer and written to the file channel
+ * (through gzip if enabled) when it's full, so memory use doesn't depend on the size of the export.
+ */
+final class ChannelWriter implements AutoCloseable {
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+    private long written;
+
+    ChannelWriter(Path file, boolean gzip, int bufferSize) throws IOException {
+        FileChannel fileChannel = FileChannel.open(file, CREATE, TRUNCATE_EXISTING, WRITE);
+        if (gzip) {
+            // gzip stream copies from a heap array anyway, direct buffer would only add a copy
+            this.channel = Channels.newChannel(new GZIPOutputStream(Channels.newOutputStream(fileChannel), bufferSize));
+            this.buffer = ByteBuffer.allocate(bufferSize);
+        } else {
+            this.channel = fileChannel;
+            this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        }
+    }
+
+    void write(byte[] bytes) throws IOException {
+        write(bytes, 0, bytes.length);
+    }
+
+    void write(byte[] bytes, int offset, int length) throws IOException {
+        written += length;
+        while (length > 0) {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            int chunk = Math.min(length, buffer.remaining());
+            buffer.put(bytes, offset, chunk);
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    void writeInt(int value) throws IOException {
+        if (buffer.remaining() < Integer.BYTES) {
+            flush();
+        }
+        buffer.putInt(value);
+        written += Integer.BYTES;
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * @return bytes written so far, before compression
+     */
+    long getWritten() {
+        return written;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package dev.kwolszczak.peopledb.export;
+
+public enum ExportFormat {
+    /**
+     * HR csv file with the columns LoadData/CsvBulkLoader read, see PersonCsvEncoder.
+     */
+    CSV("csv"),
+    /**
+     * Length-prefixed binary records, see PersonBinaryEncoder and PersonBinaryReader.
+     */
+    BINARY("bin");
+
+    private final String extension;
+
+    ExportFormat(String extension) {
+        this.extension = extension;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    PersonEncoder encoder() {
+        return this == CSV ? new PersonCsvEncoder() : new PersonBinaryEncoder();
+    }
+}
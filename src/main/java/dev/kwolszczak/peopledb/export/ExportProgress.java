@@ -0,0 +1,21 @@
+package dev.kwolszczak.peopledb.export;
+
+import java.time.Duration;
+
+/**
+ * @param exportedRows people written so far, by all partitions
+ * @param writtenBytes bytes written so far, before compression
+ * @param elapsed      time since the export started
+ */
+public record ExportProgress(long exportedRows, long writtenBytes, Duration elapsed) {
+
+    public double rowsPerSecond() {
+        long millis = elapsed.toMillis();
+        return millis == 0 ? 0 : exportedRows * 1000.0 / millis;
+    }
+
+    @Override
+    public String toString() {
+        return STR."exported=\{exportedRows}, bytes=\{writtenBytes}, elapsed=\{elapsed.toSeconds()}s, rows/s=\{(long) rowsPerSecond()}";
+    }
+}
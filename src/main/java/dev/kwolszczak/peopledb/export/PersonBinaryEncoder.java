@@ -0,0 +1,105 @@
+package dev.kwolszczak.peopledb.export;
+
+import dev.kwolszczak.peopledb.model.Address;
+import dev.kwolszczak.peopledb.model.Person;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+/**
+ * Compact binary export format, big endian:
+ * <pre>
+ * file:    MAGIC, int VERSION, records
+ * record:  int length of the rest of the record, long id, string first name, string last name, string email,
+ *          long dob as epoch millis (Long.MIN_VALUE if null), decimal salary, address home, address business
+ * string:  int length of UTF-8 bytes (-1 if null), bytes
+ * decimal: int length of unscaled value bytes (-1 if null), two's complement bytes, int scale
+ * address: byte 0 if absent, otherwise 1, long id, strings street, address2, city, state, postcode, county,
+ *          country, region name
+ * </pre>
+ * Length prefix lets a reader skip records or split the file without decoding them.
+ */
+final class PersonBinaryEncoder implements PersonEncoder {
+
+    static final int MAGIC = 0x50504C42; // "PPLB"
+    static final int VERSION = 1;
+    static final long NULL_DOB = Long.MIN_VALUE;
+
+    private ByteBuffer record = ByteBuffer.allocate(1024);
+
+    @Override
+    public void writeHeader(ChannelWriter out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    @Override
+    public void write(Person person, ChannelWriter out) throws IOException {
+        while (true) {
+            try {
+                record.clear();
+                encode(person);
+                break;
+            } catch (BufferOverflowException e) {
+                // record bigger than any before, i.e. very long strings
+                record = ByteBuffer.allocate(record.capacity() * 2);
+            }
+        }
+        out.writeInt(record.position());
+        out.write(record.array(), 0, record.position());
+    }
+
+    private void encode(Person person) {
+        record.putLong(person.getId());
+        putString(person.getFirstName());
+        putString(person.getLastName());
+        putString(person.getEmail());
+        record.putLong(person.getDob() == null ? NULL_DOB : person.getDob().toInstant().toEpochMilli());
+        putDecimal(person.getSalary());
+        putAddress(person.getHomeAddress());
+        putAddress(person.getBusinessAddress());
+    }
+
+    private void putString(String value) {
+        if (value == null) {
+            record.putInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        record.putInt(bytes.length);
+        record.put(bytes);
+    }
+
+    private void putDecimal(BigDecimal value) {
+        if (value == null) {
+            record.putInt(-1);
+            return;
+        }
+        byte[] unscaled = value.unscaledValue().toByteArray();
+        record.putInt(unscaled.length);
+        record.put(unscaled);
+        record.putInt(value.scale());
+    }
+
+    private void putAddress(Optional<Address> address) {
+        if (address.isEmpty()) {
+            record.put((byte) 0);
+            return;
+        }
+        Address a = address.get();
+        record.put((byte) 1);
+        record.putLong(a.id() == null ? 0 : a.id());
+        putString(a.streetAddress());
+        putString(a.address2());
+        putString(a.city());
+        putString(a.state());
+        putString(a.postcode());
+        putString(a.county());
+        putString(a.country());
+        putString(a.region() == null ? null : a.region().name());
+    }
+}
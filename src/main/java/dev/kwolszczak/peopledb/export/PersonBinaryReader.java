@@ -0,0 +1,152 @@
+package dev.kwolszczak.peopledb.export;
+
+import dev.kwolszczak.peopledb.model.Address;
+import dev.kwolszczak.peopledb.model.Person;
+import dev.kwolszczak.peopledb.model.Region;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.zip.GZIPInputStream;
+
+import static dev.kwolszczak.peopledb.export.PersonBinaryEncoder.*;
+
+/**
+ * Reads files of ExportFormat.BINARY record by record, with one buffer of the size of the biggest record.
+ */
+public class PersonBinaryReader implements AutoCloseable {
+
+    private static final ZoneId UTC = ZoneId.of("+0");
+
+    private final ReadableByteChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024).flip();
+
+    public PersonBinaryReader(ReadableByteChannel channel) throws IOException {
+        this.channel = channel;
+        if (!fill(2 * Integer.BYTES) || buffer.getInt() != MAGIC) {
+            throw new IOException("Not a people binary export");
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException(STR."Unsupported people binary export version: \{version}");
+        }
+    }
+
+    /**
+     * Opens an export file, gzipped or not.
+     */
+    public static PersonBinaryReader open(Path file) throws IOException {
+        InputStream in = new BufferedInputStream(Files.newInputStream(file));
+        in.mark(2);
+        boolean gzip = in.read() == 0x1f && in.read() == 0x8b;
+        in.reset();
+        return new PersonBinaryReader(Channels.newChannel(gzip ? new GZIPInputStream(in) : in));
+    }
+
+    /**
+     * @return next person, null at the end of the file
+     */
+    public Person next() throws IOException {
+        if (!fill(Integer.BYTES)) {
+            return null;
+        }
+        int length = buffer.getInt();
+        if (!fill(length)) {
+            throw new IOException("Truncated people binary export");
+        }
+        int end = buffer.position() + length;
+        Person person = new Person(null, null, null);
+        person.setId(buffer.getLong());
+        person.setFirstName(getString());
+        person.setLastName(getString());
+        person.setEmail(getString());
+        long dob = buffer.getLong();
+        person.setDob(dob == NULL_DOB ? null : ZonedDateTime.ofInstant(Instant.ofEpochMilli(dob), UTC));
+        person.setSalary(getDecimal());
+        person.setHomeAddress(getAddress());
+        person.setBusinessAddress(getAddress());
+        // newer versions may append fields
+        buffer.position(end);
+        return person;
+    }
+
+    /**
+     * Makes sure the buffer has at least count bytes to read.
+     * @return false if the file ended before the first byte
+     */
+    private boolean fill(int count) throws IOException {
+        if (buffer.remaining() >= count) {
+            return true;
+        }
+        boolean empty = !buffer.hasRemaining();
+        if (buffer.capacity() < count) {
+            buffer = ByteBuffer.allocate(Math.max(count, buffer.capacity() * 2)).put(buffer);
+        } else {
+            buffer.compact();
+        }
+        while (buffer.position() < count) {
+            if (channel.read(buffer) < 0) {
+                if (empty && buffer.position() == 0) {
+                    buffer.flip();
+                    return false;
+                }
+                throw new IOException("Truncated people binary export");
+            }
+        }
+        buffer.flip();
+        return true;
+    }
+
+    private String getString() {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private BigDecimal getDecimal() {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] unscaled = new byte[length];
+        buffer.get(unscaled);
+        return new BigDecimal(new BigInteger(unscaled), buffer.getInt());
+    }
+
+    private Address getAddress() {
+        if (buffer.get() == 0) {
+            return null;
+        }
+        long id = buffer.getLong();
+        String street = getString();
+        String address2 = getString();
+        String city = getString();
+        String state = getString();
+        String postcode = getString();
+        String county = getString();
+        String country = getString();
+        String region = getString();
+        return new Address(id, street, address2, city, state, postcode, country, county,
+                region == null ? null : Region.valueOf(region));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
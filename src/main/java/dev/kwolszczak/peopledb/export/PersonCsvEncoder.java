@@ -0,0 +1,106 @@
+package dev.kwolszczak.peopledb.export;
+
+import dev.kwolszczak.peopledb.ingest.PersonCsvParser;
+import dev.kwolszczak.peopledb.model.Address;
+import dev.kwolszczak.peopledb.model.Person;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+
+import static dev.kwolszczak.peopledb.ingest.PersonCsvParser.*;
+
+/**
+ * Writes people as rows of the HR csv file, so an export can be loaded back with CsvBulkLoader.
+ * Only columns backed by PEOPLE and the home address are filled, the others are empty.
+ * Values with a comma, quote or line break are quoted. PersonCsvParser reads quoted values,
+ * but values with line breaks can't be loaded back, the loader reads the file by lines.
+ */
+final class PersonCsvEncoder implements PersonEncoder {
+
+    static final String HEADER = "Emp ID,Name Prefix,First Name,Middle Initial,Last Name,Gender,E Mail,Father's Name,Mother's Name,Mother's Maiden Name,Date of Birth,Time of Birth,Age in Yrs.,Weight in Kgs.,Date of Joining,Quarter of Joining,Half of Joining,Year of Joining,Month of Joining,Month Name of Joining,Short Month,Day of Joining,DOW of Joining,Short DOW,Age in Company (Years),Salary,Last % Hike,SSN,Phone No. ,Place Name,County,City,State,Zip,Region,User Name,Password";
+
+    static final int EMP_ID_COL = 0;
+    static final int PLACE_NAME_COL = 29;
+    static final int COUNTY_COL = 30;
+    static final int CITY_COL = 31;
+    static final int STATE_COL = 32;
+    static final int ZIP_COL = 33;
+    static final int REGION_COL = 34;
+    static final int COLUMNS = 37;
+
+    private static final ZoneId UTC = ZoneId.of("+0");
+
+    private final String[] fields = new String[COLUMNS];
+    private final StringBuilder line = new StringBuilder(512);
+
+    @Override
+    public void writeHeader(ChannelWriter out) throws IOException {
+        out.write((HEADER + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void write(Person person, ChannelWriter out) throws IOException {
+        Arrays.fill(fields, "");
+        fields[EMP_ID_COL] = Long.toString(person.getId());
+        fields[FIRST_NAME_COL] = person.getFirstName();
+        fields[LAST_NAME_COL] = person.getLastName();
+        fields[EMAIL_COL] = person.getEmail();
+        if (person.getDob() != null) {
+            ZonedDateTime dob = person.getDob().withZoneSameInstant(UTC);
+            fields[DOB_COL] = PersonCsvParser.DOB_FORMAT.format(dob);
+            fields[TIME_OF_BIRTH_COL] = PersonCsvParser.TIME_OF_BIRTH_FORMAT.format(dob);
+        }
+        BigDecimal salary = person.getSalary();
+        fields[SALARY_COL] = salary == null ? "" : salary.toPlainString();
+        if (person.getHomeAddress().isPresent()) {
+            Address home = person.getHomeAddress().get();
+            fields[PLACE_NAME_COL] = home.streetAddress();
+            fields[COUNTY_COL] = home.county();
+            fields[CITY_COL] = home.city();
+            fields[STATE_COL] = home.state();
+            fields[ZIP_COL] = home.postcode();
+            if (home.region() != null) {
+                String region = home.region().name();
+                fields[REGION_COL] = region.charAt(0) + region.substring(1).toLowerCase();
+            }
+        }
+
+        line.setLength(0);
+        for (int i = 0; i < COLUMNS; i++) {
+            if (i > 0) {
+                line.append(',');
+            }
+            appendField(fields[i]);
+        }
+        line.append('\n');
+        out.write(line.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void appendField(String value) {
+        if (value == null) {
+            return;
+        }
+        boolean quoted = false;
+        for (int i = 0; i < value.length() && !quoted; i++) {
+            char c = value.charAt(i);
+            quoted = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quoted) {
+            line.append(value);
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                line.append('"');
+            }
+            line.append(c);
+        }
+        line.append('"');
+    }
+}
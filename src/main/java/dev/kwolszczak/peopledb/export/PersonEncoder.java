@@ -0,0 +1,15 @@
+package dev.kwolszczak.peopledb.export;
+
+import dev.kwolszczak.peopledb.model.Person;
+
+import java.io.IOException;
+
+/**
+ * Writes people in one export format. Not thread safe, every export file has its own encoder.
+ */
+interface PersonEncoder {
+
+    void writeHeader(ChannelWriter out) throws IOException;
+
+    void write(Person person, ChannelWriter out) throws IOException;
+}
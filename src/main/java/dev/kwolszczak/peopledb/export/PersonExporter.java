@@ -0,0 +1,194 @@
+package dev.kwolszczak.peopledb.export;
+
+import dev.kwolszczak.peopledb.model.Person;
+import dev.kwolszczak.peopledb.repository.PeopleRepository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Export of PEOPLE with their addresses to csv or binary files.
+ * <p>
+ * People are read with a cursor over the PEOPLE/ADDRESS join and written one by one through a fixed size buffer,
+ * so memory use is constant no matter how big the table is. Partitioned export splits the id range into
+ * equal ranges and writes every range to its own file, scanning up to repository.getMaxConcurrency() ranges in parallel
+ * (one connection each - a repository sharing one connection scans them one after another).
+ */
+public class PersonExporter {
+
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+    public static final long DEFAULT_PROGRESS_EVERY = 100_000;
+
+    private final PeopleRepository repository;
+    private ExportFormat format = ExportFormat.CSV;
+    private boolean gzip;
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+    private long progressEvery = DEFAULT_PROGRESS_EVERY;
+    private Consumer<ExportProgress> progressListener = progress -> {
+    };
+
+    public PersonExporter(PeopleRepository repository) {
+        this.repository = repository;
+    }
+
+    /**
+     * Exports all people, ordered by id, to one file.
+     */
+    public ExportProgress export(Path file) {
+        return export(file, new PeopleRepository.IdRange(Long.MIN_VALUE, Long.MAX_VALUE));
+    }
+
+    /**
+     * Exports people with ids in the range (both ends inclusive), ordered by id, to one file.
+     */
+    public ExportProgress export(Path file, PeopleRepository.IdRange range) {
+        Tracker tracker = new Tracker();
+        exportRange(file, range.min(), range.max(), tracker);
+        return tracker.progress();
+    }
+
+    /**
+     * Exports all people to partition files in the directory, see partitionFile().
+     * Every file has the header of the format, so it can be loaded on its own.
+     * @return progress of all partitions, files of empty id ranges are written too
+     */
+    public ExportProgress exportPartitioned(Path directory, int partitions) {
+        Optional<PeopleRepository.IdRange> range = repository.findIdRange();
+        // empty table - one empty partition
+        return exportPartitioned(directory, range.isPresent() ? partitions : 1, range.orElse(new PeopleRepository.IdRange(0, 0)));
+    }
+
+    /**
+     * Exports people with ids in the range (both ends inclusive) to partition files, see exportPartitioned(Path, int).
+     */
+    public ExportProgress exportPartitioned(Path directory, int partitions, PeopleRepository.IdRange range) {
+        if (partitions < 1) {
+            throw new IllegalArgumentException(STR."Partitions must be positive, was: \{partitions}");
+        }
+        if (range.max() < range.min()) {
+            throw new IllegalArgumentException(STR."Invalid id range: \{range}");
+        }
+        Tracker tracker = new Tracker();
+        long min = range.min();
+        long span = range.max() - min + 1;
+        int threads = Math.min(partitions, repository.getMaxConcurrency());
+        try (ExecutorService executor = Executors.newFixedThreadPool(threads, Thread.ofVirtual().name("people-export-", 0).factory())) {
+            List<Future<?>> parts = new ArrayList<>(partitions);
+            for (int i = 0; i < partitions; i++) {
+                long fromId = min + bound(span, partitions, i);
+                long toId = min + bound(span, partitions, i + 1) - 1;
+                Path file = partitionFile(directory, i);
+                parts.add(executor.submit(() -> exportRange(file, fromId, toId, tracker)));
+            }
+            for (Future<?> part : parts) {
+                part.get();
+            }
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException runtime ? runtime : new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Export interrupted", e);
+        }
+        return tracker.progress();
+    }
+
+    /**
+     * @return start of the partition within span ids, partitions differ in size by at most one id
+     */
+    private static long bound(long span, int partitions, int partition) {
+        return (span / partitions) * partition + Math.min(partition, span % partitions);
+    }
+
+    /**
+     * File of the partition, i.e. people-00003.csv.gz
+     */
+    public Path partitionFile(Path directory, int partition) {
+        String name = String.format("people-%05d.%s", partition, format.getExtension());
+        return directory.resolve(gzip ? name + ".gz" : name);
+    }
+
+    private void exportRange(Path file, long fromId, long toId, Tracker tracker) {
+        PersonEncoder encoder = format.encoder();
+        try (ChannelWriter out = new ChannelWriter(file, gzip, bufferSize);
+             Stream<Person> people = repository.findAllInIdRange(fromId, toId)) {
+            encoder.writeHeader(out);
+            long written = out.getWritten();
+            tracker.written(0, written);
+            for (Person person : (Iterable<Person>) people::iterator) {
+                encoder.write(person, out);
+                tracker.written(1, out.getWritten() - written);
+                written = out.getWritten();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(STR."Unable to export people to \{file}", e);
+        }
+    }
+
+    /**
+     * Progress shared by partitions.
+     */
+    private final class Tracker {
+        private final long start = System.nanoTime();
+        private final AtomicLong rows = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+
+        void written(int rowCount, long byteCount) {
+            long total = rows.addAndGet(rowCount);
+            bytes.addAndGet(byteCount);
+            if (rowCount > 0 && total % progressEvery == 0) {
+                ExportProgress progress = progress();
+                synchronized (this) {
+                    progressListener.accept(progress);
+                }
+            }
+        }
+
+        ExportProgress progress() {
+            return new ExportProgress(rows.get(), bytes.get(), Duration.ofNanos(System.nanoTime() - start));
+        }
+    }
+
+    public void setFormat(ExportFormat format) {
+        this.format = format;
+    }
+
+    /**
+     * Compresses export files with gzip, ".gz" is appended to partition file names.
+     */
+    public void setGzip(boolean gzip) {
+        this.gzip = gzip;
+    }
+
+    public void setBufferSize(int bufferSize) {
+        if (bufferSize < 64) {
+            throw new IllegalArgumentException(STR."Buffer size must be at least 64 bytes, was: \{bufferSize}");
+        }
+        this.bufferSize = bufferSize;
+    }
+
+    public void setProgressEvery(long progressEvery) {
+        if (progressEvery < 1) {
+            throw new IllegalArgumentException(STR."Progress interval must be positive, was: \{progressEvery}");
+        }
+        this.progressEvery = progressEvery;
+    }
+
+    /**
+     * Called every progressEvery exported rows, from the threads exporting partitions - one call at a time.
+     */
+    public void setProgressListener(Consumer<ExportProgress> progressListener) {
+        this.progressListener = progressListener;
+    }
+}
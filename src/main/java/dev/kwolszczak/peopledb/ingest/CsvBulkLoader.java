@@ -0,0 +1,260 @@
+package dev.kwolszczak.peopledb.ingest;
+
+import dev.kwolszczak.peopledb.exception.UnableToSaveException;
+import dev.kwolszczak.peopledb.jfr.TransactionEndEvent;
+import dev.kwolszczak.peopledb.model.Person;
+import dev.kwolszczak.peopledb.repository.PeopleRepository;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * Bulk import of HR csv file into PEOPLE table.
+ * <p>
+ * Pipeline: one reader thread cuts the file into chunks of lines, parser pool turns chunks into people,
+ * bounded queue of parsed chunks feeds the writer (calling thread) which saves them with JDBC batches.
+ * Chunks are written in file order, so after every commit the number of committed rows is a safe offset
+ * to resume from. The offset is reported to the progress listener and, if set, stored in the checkpoint file.
+ */
+public class CsvBulkLoader {
+
+    public static final int DEFAULT_CHUNK_SIZE = 10_000;
+    public static final int DEFAULT_COMMIT_EVERY = 100_000;
+    private static final int READ_BUFFER_SIZE = 1 << 20;
+
+    private record Chunk(long firstRow, List<String> lines, List<Person> people) {
+    }
+
+    private static final Chunk END = new Chunk(-1, List.of(), List.of());
+
+    private final Connection connection;
+    private final PeopleRepository repository;
+    private final PersonCsvParser parser = new PersonCsvParser();
+    private int parserThreads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private int commitEvery = DEFAULT_COMMIT_EVERY;
+    private Path checkpointFile;
+    private Consumer<LoadProgress> progressListener = progress -> {
+    };
+
+    public CsvBulkLoader(Connection connection) {
+        this(connection, new PeopleRepository(connection));
+    }
+
+    public CsvBulkLoader(Connection connection, PeopleRepository repository) {
+        this.connection = connection;
+        this.repository = repository;
+    }
+
+    /**
+     * Loads the file starting from the offset stored in checkpoint file, or from the beginning if there is none.
+     */
+    public LoadProgress load(Path csv) {
+        return load(csv, readCheckpoint());
+    }
+
+    /**
+     * @param skipRows number of data rows (header not included) to skip, i.e. committedRows of the failed run
+     */
+    public LoadProgress load(Path csv, long skipRows) {
+        long start = System.nanoTime();
+        ExecutorService parsers = Executors.newFixedThreadPool(parserThreads);
+        BlockingQueue<Future<Chunk>> chunks = new ArrayBlockingQueue<>(parserThreads * 2);
+        Thread reader = Thread.ofPlatform()
+                .name("csv-reader")
+                .start(() -> readChunks(csv, skipRows, parsers, chunks));
+
+        long committedRows = skipRows;
+        long pendingRows = 0;
+        Boolean autoCommit = null;
+        try {
+            autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            while (true) {
+                Chunk chunk = chunks.take().get();
+                if (chunk == END) {
+                    break;
+                }
+                repository.saveAll(chunk.people());
+                pendingRows += chunk.people().size();
+                if (pendingRows >= commitEvery) {
+                    committedRows = commit(committedRows + pendingRows, skipRows, start);
+                    pendingRows = 0;
+                }
+            }
+            if (pendingRows > 0) {
+                committedRows = commit(committedRows + pendingRows, skipRows, start);
+            }
+            return progress(committedRows, skipRows, start);
+        } catch (ExecutionException e) {
+            rollback();
+            throw new UnableToSaveException(STR."Unable to parse csv, resume from row: \{committedRows}", e.getCause());
+        } catch (SQLException | RuntimeException e) {
+            rollback();
+            throw new UnableToSaveException(STR."Unable to load csv, resume from row: \{committedRows}", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            rollback();
+            throw new UnableToSaveException(STR."Load interrupted, resume from row: \{committedRows}", e);
+        } finally {
+            reader.interrupt();
+            parsers.shutdownNow();
+            restoreAutoCommit(autoCommit);
+        }
+    }
+
+    private void readChunks(Path csv, long skipRows, ExecutorService parsers, BlockingQueue<Future<Chunk>> chunks) {
+        try (BufferedReader in = new BufferedReader(
+                new InputStreamReader(Files.newInputStream(csv), StandardCharsets.UTF_8), READ_BUFFER_SIZE)) {
+            in.readLine(); // header
+            long row = 0;
+            String line;
+            while (row < skipRows && in.readLine() != null) {
+                row++;
+            }
+            List<String> lines = new ArrayList<>(chunkSize);
+            long firstRow = row;
+            while ((line = in.readLine()) != null) {
+                lines.add(line);
+                row++;
+                if (lines.size() == chunkSize) {
+                    chunks.put(parsers.submit(parseTask(new Chunk(firstRow, lines, null))));
+                    lines = new ArrayList<>(chunkSize);
+                    firstRow = row;
+                }
+            }
+            if (!lines.isEmpty()) {
+                chunks.put(parsers.submit(parseTask(new Chunk(firstRow, lines, null))));
+            }
+            chunks.put(CompletableFuture.completedFuture(END));
+        } catch (IOException e) {
+            putQuietly(chunks, CompletableFuture.failedFuture(new UncheckedIOException(e)));
+        } catch (InterruptedException | RejectedExecutionException e) {
+            // writer stopped, nobody waits for more chunks
+        }
+    }
+
+    private Callable<Chunk> parseTask(Chunk chunk) {
+        return () -> {
+            List<Person> people = new ArrayList<>(chunk.lines().size());
+            long row = chunk.firstRow();
+            for (String line : chunk.lines()) {
+                try {
+                    people.add(parser.parse(line));
+                } catch (RuntimeException e) {
+                    throw new IllegalArgumentException(STR."Unable to parse row \{row}: \{line}", e);
+                }
+                row++;
+            }
+            return new Chunk(chunk.firstRow(), List.of(), people);
+        };
+    }
+
+    private long commit(long committedRows, long skipRows, long start) throws SQLException {
+        TransactionEndEvent event = TransactionEndEvent.begin("CsvBulkLoader", false);
+        connection.commit();
+        event.finish(committedRows);
+        writeCheckpoint(committedRows);
+        progressListener.accept(progress(committedRows, skipRows, start));
+        return committedRows;
+    }
+
+    private static LoadProgress progress(long committedRows, long skipRows, long start) {
+        return new LoadProgress(committedRows, committedRows - skipRows, Duration.ofNanos(System.nanoTime() - start));
+    }
+
+    private void rollback() {
+        try {
+            TransactionEndEvent event = TransactionEndEvent.begin("CsvBulkLoader", true);
+            connection.rollback();
+            event.finish(-1);
+        } catch (SQLException e) {
+            // original failure is more important
+        }
+    }
+
+    /**
+     * Connection belongs to the caller, it gets back the auto commit mode it had before the load.
+     */
+    private void restoreAutoCommit(Boolean autoCommit) {
+        if (autoCommit == null) {
+            return;
+        }
+        try {
+            connection.setAutoCommit(autoCommit);
+        } catch (SQLException e) {
+            // load is committed or rolled back already, a broken connection fails the caller's next call
+        }
+    }
+
+    private long readCheckpoint() {
+        if (checkpointFile == null || !Files.exists(checkpointFile)) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(Files.readString(checkpointFile).trim());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeCheckpoint(long committedRows) {
+        if (checkpointFile == null) {
+            return;
+        }
+        try {
+            Files.writeString(checkpointFile, Long.toString(committedRows));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void putQuietly(BlockingQueue<Future<Chunk>> chunks, Future<Chunk> chunk) {
+        try {
+            chunks.put(chunk);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void setParserThreads(int parserThreads) {
+        if (parserThreads < 1) {
+            throw new IllegalArgumentException(STR."Parser threads must be positive, was: \{parserThreads}");
+        }
+        this.parserThreads = parserThreads;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException(STR."Chunk size must be positive, was: \{chunkSize}");
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    public void setCommitEvery(int commitEvery) {
+        if (commitEvery < 1) {
+            throw new IllegalArgumentException(STR."Commit interval must be positive, was: \{commitEvery}");
+        }
+        this.commitEvery = commitEvery;
+    }
+
+    public void setCheckpointFile(Path checkpointFile) {
+        this.checkpointFile = checkpointFile;
+    }
+
+    public void setProgressListener(Consumer<LoadProgress> progressListener) {
+        this.progressListener = progressListener;
+    }
+}
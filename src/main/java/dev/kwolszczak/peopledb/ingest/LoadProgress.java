@@ -0,0 +1,22 @@
+package dev.kwolszczak.peopledb.ingest;
+
+import java.time.Duration;
+
+/**
+ * @param committedRows csv rows (without header) committed so far, including rows skipped on resume.
+ *                      It's the offset to resume from after a failure.
+ * @param loadedRows    rows saved by this run
+ * @param elapsed       time since the run started
+ */
+public record LoadProgress(long committedRows, long loadedRows, Duration elapsed) {
+
+    public double rowsPerSecond() {
+        long millis = elapsed.toMillis();
+        return millis == 0 ? 0 : loadedRows * 1000.0 / millis;
+    }
+
+    @Override
+    public String toString() {
+        return STR."committed=\{committedRows}, loaded=\{loadedRows}, elapsed=\{elapsed.toSeconds()}s, rows/s=\{(long) rowsPerSecond()}";
+    }
+}
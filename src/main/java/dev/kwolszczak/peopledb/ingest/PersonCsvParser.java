@@ -0,0 +1,111 @@
+package dev.kwolszczak.peopledb.ingest;
+
+import dev.kwolszczak.peopledb.model.Person;
+
+import java.math.BigDecimal;
+import java.time.*;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+
+/**
+ * Parses one line of HR csv file into Person. Stateless, can be shared by parser threads.
+ * Empty date of birth, salary and email are left unset, so rows exported by PersonExporter load back.
+ * Quoted values ("Smith, Jr.") are read, line breaks inside them are not - the loader reads the file by lines.
+ */
+public class PersonCsvParser {
+
+    public static final int FIRST_NAME_COL = 2;
+    public static final int LAST_NAME_COL = 4;
+    public static final int EMAIL_COL = 6;
+    public static final int DOB_COL = 10;
+    public static final int TIME_OF_BIRTH_COL = 11;
+    public static final int SALARY_COL = 25;
+
+    public static final DateTimeFormatter DOB_FORMAT = DateTimeFormatter.ofPattern("M/d/yyyy", Locale.US);
+    public static final DateTimeFormatter TIME_OF_BIRTH_FORMAT = DateTimeFormatter.ofPattern("hh:mm:ss a", Locale.US);
+
+    private static final ZoneId ZONE = ZoneId.of("+0");
+
+    public Person parse(String line) {
+        String[] fields = split(line, SALARY_COL + 1);
+        ZonedDateTime dob = null;
+        if (!fields[DOB_COL].isEmpty()) {
+            LocalTime tob = fields[TIME_OF_BIRTH_COL].isEmpty()
+                    ? LocalTime.MIDNIGHT
+                    : LocalTime.parse(fields[TIME_OF_BIRTH_COL], TIME_OF_BIRTH_FORMAT);
+            dob = ZonedDateTime.of(LocalDateTime.of(LocalDate.parse(fields[DOB_COL], DOB_FORMAT), tob), ZONE);
+        }
+        Person person = new Person(fields[FIRST_NAME_COL], fields[LAST_NAME_COL], dob);
+        if (!fields[SALARY_COL].isEmpty()) {
+            person.setSalary(new BigDecimal(fields[SALARY_COL]));
+        }
+        person.setEmail(fields[EMAIL_COL].isEmpty() ? null : fields[EMAIL_COL]);
+        return person;
+    }
+
+    /**
+     * Splits only first fieldCount fields of the line, rest of the line is not scanned.
+     */
+    static String[] split(String line, int fieldCount) {
+        if (line.indexOf('"') >= 0) {
+            return splitQuoted(line, fieldCount);
+        }
+        String[] fields = new String[fieldCount];
+        int start = 0;
+        for (int i = 0; i < fieldCount; i++) {
+            int end = line.indexOf(',', start);
+            if (end < 0) {
+                if (i < fieldCount - 1) {
+                    throw new IllegalArgumentException(STR."Expected at least \{fieldCount} fields in line: \{line}");
+                }
+                end = line.length();
+            }
+            fields[i] = line.substring(start, end);
+            start = end + 1;
+        }
+        return fields;
+    }
+
+    /**
+     * split() for lines with quoted values, "" inside a quoted value is a quote.
+     */
+    private static String[] splitQuoted(String line, int fieldCount) {
+        String[] fields = new String[fieldCount];
+        StringBuilder field = new StringBuilder();
+        int pos = 0;
+        for (int i = 0; i < fieldCount; i++) {
+            if (pos > line.length()) {
+                throw new IllegalArgumentException(STR."Expected at least \{fieldCount} fields in line: \{line}");
+            }
+            field.setLength(0);
+            if (pos < line.length() && line.charAt(pos) == '"') {
+                pos++;
+                while (true) {
+                    int quote = line.indexOf('"', pos);
+                    if (quote < 0) {
+                        throw new IllegalArgumentException(STR."Unclosed quoted value in line: \{line}");
+                    }
+                    field.append(line, pos, quote);
+                    pos = quote + 1;
+                    if (pos < line.length() && line.charAt(pos) == '"') {
+                        field.append('"');
+                        pos++;
+                    } else {
+                        break;
+                    }
+                }
+                if (pos < line.length() && line.charAt(pos) != ',') {
+                    throw new IllegalArgumentException(STR."Unexpected character after quoted value in line: \{line}");
+                }
+            } else {
+                int end = line.indexOf(',', pos);
+                end = end < 0 ? line.length() : end;
+                field.append(line, pos, end);
+                pos = end;
+            }
+            fields[i] = field.toString();
+            pos++;
+        }
+        return fields;
+    }
+}
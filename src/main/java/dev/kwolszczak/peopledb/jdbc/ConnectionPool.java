@@ -0,0 +1,338 @@
+package dev.kwolszczak.peopledb.jdbc;
+
+import dev.kwolszczak.peopledb.jfr.TransactionEndEvent;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Lightweight fixed size connection pool. Every pooled connection has its own statement cache.
+ * <p>
+ * Connections are kept with auto commit off. Repository operations run in a lease: the outermost lease of a thread
+ * commits when the operation succeeded and rolls back otherwise, nested leases of the same thread
+ * (i.e. cascade saves to other repositories) join it. Connections taken with getConnection() are released
+ * when closed, uncommitted work is rolled back then. Streams of repositories hold their own connection until closed,
+ * see CrudRepository.findAll().
+ */
+public class ConnectionPool implements DataSource, ConnectionProvider, AutoCloseable {
+
+    public static final int DEFAULT_MAX_SIZE = 10;
+    public static final Duration DEFAULT_BORROW_TIMEOUT = Duration.ofSeconds(30);
+
+    // pools made by of(), one per data source, so repositories created with the same DataSource share the connections
+    private static final Map<DataSource, ConnectionPool> POOLS = new ConcurrentHashMap<>();
+
+    @FunctionalInterface
+    public interface ConnectionFactory {
+        Connection create() throws SQLException;
+    }
+
+    private final ConnectionFactory factory;
+    private final DataSource dataSource;
+    private final int maxSize;
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<StatementCache> idle = new LinkedBlockingDeque<>();
+    private final Set<StatementCache> all = ConcurrentHashMap.newKeySet();
+    private final ThreadLocal<PooledLease> currentLease = new ThreadLocal<>();
+    private volatile Duration borrowTimeout = DEFAULT_BORROW_TIMEOUT;
+    private volatile int statementCacheSize = StatementCache.DEFAULT_MAX_SIZE;
+    private volatile boolean closed;
+
+    public ConnectionPool(String url, int maxSize) {
+        this(() -> DriverManager.getConnection(url), null, maxSize);
+    }
+
+    public ConnectionPool(DataSource dataSource, int maxSize) {
+        this(dataSource::getConnection, dataSource, maxSize);
+    }
+
+    private ConnectionPool(ConnectionFactory factory, DataSource dataSource, int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException(STR."Max size must be positive, was: \{maxSize}");
+        }
+        this.factory = factory;
+        this.dataSource = dataSource;
+        this.maxSize = maxSize;
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    /**
+     * @return given data source if it's already a pool, otherwise the pool of DEFAULT_MAX_SIZE connections
+     * of that data source - created on first call, replaced when closed
+     */
+    public static ConnectionPool of(DataSource dataSource) {
+        if (dataSource instanceof ConnectionPool pool) {
+            return pool;
+        }
+        return POOLS.compute(dataSource, (source, pool) ->
+                pool == null || pool.closed ? new ConnectionPool(source, DEFAULT_MAX_SIZE) : pool);
+    }
+
+    @Override
+    public Lease acquire() throws SQLException {
+        PooledLease lease = currentLease.get();
+        if (lease != null) {
+            lease.depth++;
+            return lease;
+        }
+        lease = new PooledLease(borrow(), true);
+        currentLease.set(lease);
+        return lease;
+    }
+
+    @Override
+    public Lease open() throws SQLException {
+        return new PooledLease(borrow(), false);
+    }
+
+    @Override
+    public int maxConcurrency() {
+        return maxSize;
+    }
+
+    private StatementCache borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        try {
+            if (!permits.tryAcquire(borrowTimeout.toNanos(), TimeUnit.NANOSECONDS)) {
+                throw new SQLTimeoutException(STR."No connection available within \{borrowTimeout}, pool size: \{maxSize}, open streams hold their connections until closed");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for connection", e);
+        }
+        try {
+            StatementCache statements;
+            while ((statements = idle.pollFirst()) != null) {
+                if (!statements.getConnection().isClosed()) {
+                    return statements;
+                }
+                all.remove(statements);
+            }
+            Connection connection = factory.create();
+            connection.setAutoCommit(false);
+            statements = new StatementCache(connection, statementCacheSize);
+            all.add(statements);
+            return statements;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private void release(StatementCache statements) {
+        try {
+            if (closed) {
+                discard(statements);
+            } else {
+                // most recently used connection goes first, it's statements are warm
+                idle.offerFirst(statements);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void discard(StatementCache statements) {
+        all.remove(statements);
+        statements.close();
+        try {
+            statements.getConnection().close();
+        } catch (SQLException e) {
+            // connection is dropped anyway
+        }
+    }
+
+    private final class PooledLease implements Lease {
+        private final StatementCache statements;
+        private final boolean threadBound;
+        private int depth = 1;
+        private boolean success;
+
+        private PooledLease(StatementCache statements, boolean threadBound) {
+            this.statements = statements;
+            this.threadBound = threadBound;
+        }
+
+        @Override
+        public StatementCache statements() {
+            return statements;
+        }
+
+        @Override
+        public void success() {
+            // only the outermost operation decides about the transaction
+            if (depth == 1) {
+                success = true;
+            }
+        }
+
+        @Override
+        public void close() throws SQLException {
+            if (--depth > 0) {
+                return;
+            }
+            if (threadBound) {
+                currentLease.remove();
+            }
+            try {
+                Connection connection = statements.getConnection();
+                if (!connection.isClosed() && !connection.getAutoCommit()) {
+                    TransactionEndEvent event = TransactionEndEvent.begin("ConnectionPool", !success);
+                    if (success) {
+                        connection.commit();
+                    } else {
+                        connection.rollback();
+                    }
+                    event.finish(-1);
+                }
+            } finally {
+                release(statements);
+            }
+        }
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        Lease lease = open();
+        Connection connection = lease.statements().getConnection();
+        InvocationHandler handler = new InvocationHandler() {
+            private boolean released;
+
+            @Override
+            public Object invoke(Object proxy, java.lang.reflect.Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "close" -> {
+                        if (!released) {
+                            released = true;
+                            lease.close();
+                        }
+                        return null;
+                    }
+                    case "isClosed" -> {
+                        return released || connection.isClosed();
+                    }
+                    case "unwrap" -> {
+                        return ((Class<?>) args[0]).isInstance(proxy) ? proxy : connection.unwrap((Class<?>) args[0]);
+                    }
+                    default -> {
+                        if (released) {
+                            throw new SQLException("Connection was returned to the pool");
+                        }
+                        try {
+                            return method.invoke(connection, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                }
+            }
+        };
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, handler);
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Pool connections use credentials of the underlying data source");
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getActiveCount() {
+        return maxSize - permits.availablePermits();
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public void setBorrowTimeout(Duration borrowTimeout) {
+        this.borrowTimeout = borrowTimeout;
+    }
+
+    /**
+     * Size of statement cache of connections created from now on.
+     */
+    public void setStatementCacheSize(int statementCacheSize) {
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    /**
+     * Closes idle connections, connections in use are closed when released.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        StatementCache statements;
+        while ((statements = idle.pollFirst()) != null) {
+            discard(statements);
+        }
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return dataSource == null ? DriverManager.getLogWriter() : dataSource.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        if (dataSource == null) {
+            DriverManager.setLogWriter(out);
+        } else {
+            dataSource.setLogWriter(out);
+        }
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        if (dataSource == null) {
+            DriverManager.setLoginTimeout(seconds);
+        } else {
+            dataSource.setLoginTimeout(seconds);
+        }
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return dataSource == null ? DriverManager.getLoginTimeout() : dataSource.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        if (dataSource == null) {
+            return Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+        }
+        return dataSource.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        if (dataSource != null) {
+            return dataSource.unwrap(iface);
+        }
+        throw new SQLException(STR."Not a wrapper for \{iface}");
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || (dataSource != null && dataSource.isWrapperFor(iface));
+    }
+}
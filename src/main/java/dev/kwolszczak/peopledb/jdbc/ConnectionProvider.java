@@ -0,0 +1,41 @@
+package dev.kwolszczak.peopledb.jdbc;
+
+import java.sql.SQLException;
+
+/**
+ * Gives repositories a connection (with its statement cache) for the time of one operation.
+ */
+public interface ConnectionProvider {
+
+    /**
+     * Lease joined with the lease already held by the current thread, if there is one,
+     * so cascades of one repository operation run on the same connection and in the same transaction.
+     */
+    Lease acquire() throws SQLException;
+
+    /**
+     * Lease not bound to the current thread, for cursors which outlive the call, i.e. streams.
+     */
+    Lease open() throws SQLException;
+
+    /**
+     * Number of operations which can run at the same time without waiting for a connection.
+     */
+    default int maxConcurrency() {
+        return 1;
+    }
+
+    interface Lease extends AutoCloseable {
+
+        StatementCache statements();
+
+        /**
+         * Marks work done with the lease as successful. If the provider manages transactions,
+         * it commits on close after success and rolls back otherwise.
+         */
+        void success();
+
+        @Override
+        void close() throws SQLException;
+    }
+}
@@ -0,0 +1,130 @@
+package dev.kwolszczak.peopledb.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Per-connection cache of prepared statements keyed by SQL and generated keys mode.
+ * Least recently used statement is closed and evicted when cache grows over maxSize.
+ * Not thread safe - like the connection it belongs to, it should be used by one thread at a time.
+ * maxSize must be bigger than number of statements used at the same time (i.e. nested cascade saves),
+ * otherwise a statement still in use could be evicted and closed.
+ * As a connection provider it always leases its own connection and leaves transactions to the caller.
+ */
+public class StatementCache implements ConnectionProvider, AutoCloseable {
+
+    public static final int DEFAULT_MAX_SIZE = 64;
+
+    private final Connection connection;
+    private final Lease lease = new Lease() {
+        @Override
+        public StatementCache statements() {
+            return StatementCache.this;
+        }
+
+        @Override
+        public void success() {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+    private final Map<Key, PreparedStatement> statements;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    private record Key(String sql, int autoGeneratedKeys) {
+    }
+
+    public StatementCache(Connection connection) {
+        this(connection, DEFAULT_MAX_SIZE);
+    }
+
+    public StatementCache(Connection connection, int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException(STR."Max size must be positive, was: \{maxSize}");
+        }
+        this.connection = connection;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, PreparedStatement> eldest) {
+                if (size() > maxSize) {
+                    evictions++;
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public PreparedStatement prepare(String sql) throws SQLException {
+        return prepare(sql, Statement.NO_GENERATED_KEYS);
+    }
+
+    public PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+        Key key = new Key(sql, autoGeneratedKeys);
+        PreparedStatement ps = statements.get(key);
+        if (ps != null && !ps.isClosed()) {
+            hits++;
+            return ps;
+        }
+        misses++;
+        ps = connection.prepareStatement(sql, autoGeneratedKeys);
+        statements.put(key, ps);
+        return ps;
+    }
+
+    @Override
+    public Lease acquire() {
+        return lease;
+    }
+
+    @Override
+    public Lease open() {
+        return lease;
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    public int size() {
+        return statements.size();
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Closes all cached statements. Connection stays open.
+     */
+    @Override
+    public void close() {
+        statements.values().forEach(StatementCache::closeQuietly);
+        statements.clear();
+    }
+
+    private static void closeQuietly(Statement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            // statement is dropped anyway, nothing more to do
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package dev.kwolszczak.peopledb.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * Saving of entities referenced by saved entities, i.e. addresses and children of a person.
+ */
+@Name("dev.kwolszczak.peopledb.CascadeSave")
+@Label("Cascade Save")
+@Category({"PeopleDB", "Repository"})
+@StackTrace(false)
+public class CascadeSaveEvent extends Event {
+
+    @Label("Cascade")
+    @Description("Repository hook which saved the referenced entities")
+    public String cascade;
+
+    @Label("Entity")
+    public Class<?> entityType;
+
+    @Label("Rows")
+    @Description("Number of entities the cascade was run for")
+    public long rows;
+
+    public static CascadeSaveEvent begin(String cascade, Class<?> entityType) {
+        CascadeSaveEvent event = new CascadeSaveEvent();
+        event.cascade = cascade;
+        event.entityType = entityType;
+        event.begin();
+        return event;
+    }
+
+    public void finish(long rows) {
+        if (shouldCommit()) {
+            this.rows = rows;
+            commit();
+        }
+    }
+}
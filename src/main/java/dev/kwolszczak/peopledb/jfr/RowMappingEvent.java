@@ -0,0 +1,37 @@
+package dev.kwolszczak.peopledb.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * Reading rows of a result set into entities, cascaded entities included (i.e. addresses of people).
+ */
+@Name("dev.kwolszczak.peopledb.RowMapping")
+@Label("Row Mapping")
+@Category({"PeopleDB", "Repository"})
+@StackTrace(false)
+public class RowMappingEvent extends Event {
+
+    @Label("Operation")
+    public String operation;
+
+    @Label("Entity")
+    public Class<?> entityType;
+
+    @Label("Rows")
+    public long rows;
+
+    public static RowMappingEvent begin(String operation, Class<?> entityType) {
+        RowMappingEvent event = new RowMappingEvent();
+        event.operation = operation;
+        event.entityType = entityType;
+        event.begin();
+        return event;
+    }
+
+    public void finish(long rows) {
+        if (shouldCommit()) {
+            this.rows = rows;
+            commit();
+        }
+    }
+}
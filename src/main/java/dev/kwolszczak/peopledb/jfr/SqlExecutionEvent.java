@@ -0,0 +1,45 @@
+package dev.kwolszczak.peopledb.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * Execution of a repository statement. For queries the duration ends when the result set is returned,
+ * mapping of its rows is a separate RowMappingEvent, rows is the number of rows mapped afterwards.
+ */
+@Name("dev.kwolszczak.peopledb.SqlExecution")
+@Label("SQL Execution")
+@Category({"PeopleDB", "Repository"})
+@StackTrace(false)
+public class SqlExecutionEvent extends Event {
+
+    @Label("Operation")
+    public String operation;
+
+    @Label("Entity")
+    public Class<?> entityType;
+
+    @Label("SQL")
+    public String sql;
+
+    @Label("Rows")
+    public long rows;
+
+    public static SqlExecutionEvent begin(String operation, Class<?> entityType, String sql) {
+        SqlExecutionEvent event = new SqlExecutionEvent();
+        event.operation = operation;
+        event.entityType = entityType;
+        event.sql = sql;
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Commits the event ended now, or when end() was called, i.e. right after executeQuery().
+     */
+    public void finish(long rows) {
+        if (shouldCommit()) {
+            this.rows = rows;
+            commit();
+        }
+    }
+}
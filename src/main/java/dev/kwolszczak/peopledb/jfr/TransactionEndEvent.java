@@ -0,0 +1,38 @@
+package dev.kwolszczak.peopledb.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * Commit or rollback of a repository transaction (connection pool lease, unit of work, bulk load).
+ */
+@Name("dev.kwolszczak.peopledb.TransactionEnd")
+@Label("Transaction End")
+@Category({"PeopleDB", "Transaction"})
+@StackTrace(false)
+public class TransactionEndEvent extends Event {
+
+    @Label("Source")
+    public String source;
+
+    @Label("Rollback")
+    public boolean rollback;
+
+    @Label("Rows")
+    @Description("Rows committed by the transaction, if the source knows them, otherwise -1")
+    public long rows;
+
+    public static TransactionEndEvent begin(String source, boolean rollback) {
+        TransactionEndEvent event = new TransactionEndEvent();
+        event.source = source;
+        event.rollback = rollback;
+        event.begin();
+        return event;
+    }
+
+    public void finish(long rows) {
+        if (shouldCommit()) {
+            this.rows = rows;
+            commit();
+        }
+    }
+}
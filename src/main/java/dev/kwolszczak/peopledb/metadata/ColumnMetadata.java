@@ -0,0 +1,88 @@
+package dev.kwolszczak.peopledb.metadata;
+
+import java.lang.invoke.VarHandle;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Column of an entity table mapped to a field, accessed through a VarHandle resolved once.
+ */
+public final class ColumnMetadata {
+
+    private final String name;
+    private final Class<?> type;
+    private final VarHandle field;
+    private final ColumnType columnType;
+
+    ColumnMetadata(String name, Class<?> type, VarHandle field) {
+        this.name = name;
+        this.type = type;
+        this.field = field;
+        this.columnType = ColumnType.of(type);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Class<?> getType() {
+        return type;
+    }
+
+    public Object get(Object entity) {
+        return field.get(entity);
+    }
+
+    /**
+     * Binds the field of the entity as the parameter.
+     */
+    public void bind(PreparedStatement ps, int index, Object entity) throws SQLException {
+        switch (columnType) {
+            case LONG -> ps.setLong(index, (long) field.get(entity));
+            case INT -> ps.setInt(index, (int) field.get(entity));
+            default -> columnType.bind(ps, index, field.get(entity));
+        }
+    }
+
+    /**
+     * @return value of the column converted to the field type, boxed
+     */
+    public Object read(ResultSet rs, int index) throws SQLException {
+        return columnType.read(rs, index, type);
+    }
+
+    /**
+     * Reads the column straight into the field of the entity. Final fields can't be set, see EntityMetadata.
+     */
+    public void readInto(ResultSet rs, int index, Object entity) throws SQLException {
+        switch (columnType) {
+            case LONG -> field.set(entity, rs.getLong(index));
+            case INT -> field.set(entity, rs.getInt(index));
+            default -> field.set(entity, columnType.read(rs, index, type));
+        }
+    }
+
+    /**
+     * Copies the field from one entity to another, the field must not be final.
+     */
+    public void copy(Object from, Object to) {
+        field.set(to, field.get(from));
+    }
+
+    /**
+     * Adds one to a long or int field, i.e. a @Version after the row was updated.
+     */
+    public void increment(Object entity) {
+        switch (columnType) {
+            case LONG -> field.set(entity, (long) field.get(entity) + 1);
+            case INT -> field.set(entity, (int) field.get(entity) + 1);
+            default -> throw new IllegalStateException(STR."Column \{name} is not a number");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return STR."\{name} \{type.getSimpleName()}";
+    }
+}
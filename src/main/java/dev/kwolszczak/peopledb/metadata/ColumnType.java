@@ -0,0 +1,157 @@
+package dev.kwolszczak.peopledb.metadata;
+
+import java.math.BigDecimal;
+import java.sql.*;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+
+/**
+ * JDBC binding of a field type. long and int fields are bound by ColumnMetadata without boxing.
+ */
+enum ColumnType {
+    LONG {
+        @Override
+        void bind(PreparedStatement ps, int index, Object value) throws SQLException {
+            ps.setLong(index, (Long) value);
+        }
+
+        @Override
+        Object read(ResultSet rs, int index, Class<?> type) throws SQLException {
+            return rs.getLong(index);
+        }
+    },
+    INT {
+        @Override
+        void bind(PreparedStatement ps, int index, Object value) throws SQLException {
+            ps.setInt(index, (Integer) value);
+        }
+
+        @Override
+        Object read(ResultSet rs, int index, Class<?> type) throws SQLException {
+            return rs.getInt(index);
+        }
+    },
+    BOXED_LONG {
+        @Override
+        void bind(PreparedStatement ps, int index, Object value) throws SQLException {
+            if (value == null) {
+                ps.setNull(index, Types.BIGINT);
+            } else {
+                ps.setLong(index, (Long) value);
+            }
+        }
+
+        @Override
+        Object read(ResultSet rs, int index, Class<?> type) throws SQLException {
+            long value = rs.getLong(index);
+            return rs.wasNull() ? null : value;
+        }
+    },
+    BOXED_INT {
+        @Override
+        void bind(PreparedStatement ps, int index, Object value) throws SQLException {
+            if (value == null) {
+                ps.setNull(index, Types.INTEGER);
+            } else {
+                ps.setInt(index, (Integer) value);
+            }
+        }
+
+        @Override
+        Object read(ResultSet rs, int index, Class<?> type) throws SQLException {
+            int value = rs.getInt(index);
+            return rs.wasNull() ? null : value;
+        }
+    },
+    STRING {
+        @Override
+        void bind(PreparedStatement ps, int index, Object value) throws SQLException {
+            ps.setString(index, (String) value);
+        }
+
+        @Override
+        Object read(ResultSet rs, int index, Class<?> type) throws SQLException {
+            return rs.getString(index);
+        }
+    },
+    BIG_DECIMAL {
+        @Override
+        void bind(PreparedStatement ps, int index, Object value) throws SQLException {
+            ps.setBigDecimal(index, (BigDecimal) value);
+        }
+
+        @Override
+        Object read(ResultSet rs, int index, Class<?> type) throws SQLException {
+            return rs.getBigDecimal(index);
+        }
+    },
+    /**
+     * Stored as TIMESTAMP in UTC, like PeopleRepository stores DOB.
+     */
+    ZONED_DATE_TIME {
+        @Override
+        void bind(PreparedStatement ps, int index, Object value) throws SQLException {
+            if (value == null) {
+                ps.setNull(index, Types.TIMESTAMP);
+            } else {
+                ps.setTimestamp(index, Timestamp.valueOf(((ZonedDateTime) value).withZoneSameInstant(UTC).toLocalDateTime()));
+            }
+        }
+
+        @Override
+        Object read(ResultSet rs, int index, Class<?> type) throws SQLException {
+            Timestamp timestamp = rs.getTimestamp(index);
+            return timestamp == null ? null : ZonedDateTime.of(timestamp.toLocalDateTime(), UTC);
+        }
+    },
+    /**
+     * Stored as the constant name.
+     */
+    ENUM {
+        @Override
+        void bind(PreparedStatement ps, int index, Object value) throws SQLException {
+            ps.setString(index, value == null ? null : ((Enum<?>) value).name());
+        }
+
+        @Override
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Object read(ResultSet rs, int index, Class<?> type) throws SQLException {
+            String name = rs.getString(index);
+            return name == null ? null : Enum.valueOf((Class<? extends Enum>) type, name);
+        }
+    };
+
+    private static final ZoneId UTC = ZoneId.of("+0");
+
+    abstract void bind(PreparedStatement ps, int index, Object value) throws SQLException;
+
+    abstract Object read(ResultSet rs, int index, Class<?> type) throws SQLException;
+
+    static ColumnType of(Class<?> type) {
+        if (type == long.class) {
+            return LONG;
+        }
+        if (type == int.class) {
+            return INT;
+        }
+        if (type == Long.class) {
+            return BOXED_LONG;
+        }
+        if (type == Integer.class) {
+            return BOXED_INT;
+        }
+        if (type == String.class) {
+            return STRING;
+        }
+        if (type == BigDecimal.class) {
+            return BIG_DECIMAL;
+        }
+        if (type == ZonedDateTime.class) {
+            return ZONED_DATE_TIME;
+        }
+        if (type.isEnum()) {
+            return ENUM;
+        }
+        throw new IllegalArgumentException(STR."Unsupported column type: \{type.getName()}");
+    }
+}
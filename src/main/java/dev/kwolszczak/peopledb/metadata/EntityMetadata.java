@@ -0,0 +1,257 @@
+package dev.kwolszczak.peopledb.metadata;
+
+import dev.kwolszczak.peopledb.annotation.Column;
+import dev.kwolszczak.peopledb.annotation.Id;
+import dev.kwolszczak.peopledb.annotation.Table;
+import dev.kwolszczak.peopledb.annotation.Version;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.VarHandle;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Table mapping of an entity class: @Table name, @Id field and @Column fields in declaration order.
+ * Built once per class with reflection, later reads and binds go through cached VarHandles and MethodHandles.
+ * <p>
+ * Entity is created with a constructor taking the id and then all columns in field order if there is one
+ * (needed when mapped fields are final, like in Address), otherwise with a no-arg constructor and the fields
+ * are set one by one. Both may be private.
+ * Optional @Version field is not a constructor parameter, it's always set after the entity is created.
+ * Relations (fields without @Column) are not mapped.
+ */
+public final class EntityMetadata<T> {
+
+    private static final ClassValue<EntityMetadata<?>> REGISTRY = new ClassValue<>() {
+        @Override
+        protected EntityMetadata<?> computeValue(Class<?> type) {
+            return new EntityMetadata<>(type);
+        }
+    };
+
+    private final Class<T> type;
+    private final String table;
+    private final ColumnMetadata id;
+    private final List<ColumnMetadata> columns;
+    private final ColumnMetadata version;
+    // (Object[]) -> Object taking id and columns, or () -> Object
+    private final MethodHandle constructor;
+    private final boolean allColumnsConstructor;
+
+    @SuppressWarnings("unchecked")
+    public static <T> EntityMetadata<T> of(Class<T> type) {
+        return (EntityMetadata<T>) REGISTRY.get(type);
+    }
+
+    private EntityMetadata(Class<T> type) {
+        Table table = type.getAnnotation(Table.class);
+        if (table == null) {
+            throw new IllegalArgumentException(STR."Entity \{type.getName()} has no @Table");
+        }
+        this.type = type;
+        this.table = table.value();
+        MethodHandles.Lookup lookup;
+        try {
+            lookup = MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException(STR."Entity \{type.getName()} is not open for mapping", e);
+        }
+
+        ColumnMetadata id = null;
+        ColumnMetadata version = null;
+        List<ColumnMetadata> columns = new ArrayList<>();
+        List<Class<?>> types = new ArrayList<>();
+        boolean finalFields = false;
+        for (Field field : type.getDeclaredFields()) {
+            boolean isId = field.isAnnotationPresent(Id.class);
+            Column column = field.getAnnotation(Column.class);
+            Version versionColumn = field.getAnnotation(Version.class);
+            if (Modifier.isStatic(field.getModifiers())) {
+                continue;
+            }
+            if (versionColumn != null) {
+                if (version != null) {
+                    throw new IllegalArgumentException(STR."Entity \{type.getName()} has more than one @Version");
+                }
+                if ((field.getType() != long.class && field.getType() != int.class) || Modifier.isFinal(field.getModifiers())) {
+                    throw new IllegalArgumentException(STR."@Version \{field} must be a non-final long or int");
+                }
+                String name = versionColumn.value().isEmpty() ? columnName(field.getName()) : versionColumn.value();
+                version = new ColumnMetadata(name, field.getType(), varHandle(lookup, field));
+                continue;
+            }
+            if (!isId && column == null) {
+                continue;
+            }
+            String name = column == null || column.value().isEmpty() ? columnName(field.getName()) : column.value();
+            ColumnMetadata mapped = new ColumnMetadata(name, field.getType(), varHandle(lookup, field));
+            if (isId) {
+                if (id != null) {
+                    throw new IllegalArgumentException(STR."Entity \{type.getName()} has more than one @Id");
+                }
+                id = mapped;
+                types.addFirst(field.getType());
+            } else {
+                columns.add(mapped);
+                types.add(field.getType());
+            }
+            finalFields |= Modifier.isFinal(field.getModifiers());
+        }
+        if (id == null) {
+            throw new IllegalArgumentException(STR."Entity \{type.getName()} has no @Id");
+        }
+        this.id = id;
+        this.columns = List.copyOf(columns);
+        this.version = version;
+
+        MethodHandle allColumns = constructor(lookup, types);
+        MethodHandle noArgs = finalFields ? null : constructor(lookup, List.of());
+        if (noArgs != null) {
+            this.constructor = noArgs.asType(MethodType.methodType(Object.class));
+            this.allColumnsConstructor = false;
+        } else if (allColumns != null) {
+            this.constructor = allColumns.asSpreader(Object[].class, types.size())
+                    .asType(MethodType.methodType(Object.class, Object[].class));
+            this.allColumnsConstructor = true;
+        } else {
+            throw new IllegalArgumentException(STR."Entity \{type.getName()} needs a no-arg constructor or one taking \{types}");
+        }
+    }
+
+    private static VarHandle varHandle(MethodHandles.Lookup lookup, Field field) {
+        try {
+            return lookup.unreflectVarHandle(field);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException(STR."Field \{field} can't be mapped", e);
+        }
+    }
+
+    private MethodHandle constructor(MethodHandles.Lookup lookup, List<Class<?>> parameters) {
+        try {
+            return lookup.findConstructor(type, MethodType.methodType(void.class, parameters));
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException(STR."Constructor of \{type.getName()} can't be used", e);
+        }
+    }
+
+    static String columnName(String fieldName) {
+        return fieldName.replaceAll("([a-z0-9])([A-Z])", "$1_$2").toUpperCase();
+    }
+
+    public Class<T> getType() {
+        return type;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public ColumnMetadata getId() {
+        return id;
+    }
+
+    /**
+     * @return mapped columns without the id, in field order
+     */
+    public List<ColumnMetadata> getColumns() {
+        return columns;
+    }
+
+    /**
+     * @return the @Version column, null if the entity is not versioned
+     */
+    public ColumnMetadata getVersion() {
+        return version;
+    }
+
+    /**
+     * Binds all columns except the id as consecutive parameters.
+     * @return index of the next parameter
+     */
+    public int bindColumns(T entity, PreparedStatement ps, int firstIndex) throws SQLException {
+        int index = firstIndex;
+        for (ColumnMetadata column : columns) {
+            column.bind(ps, index++, entity);
+        }
+        return index;
+    }
+
+    /**
+     * Creates the entity from the id and columns read at consecutive indexes, in the order of getColumns(),
+     * followed by the version if there is one.
+     */
+    public T read(ResultSet rs, int firstIndex) throws SQLException {
+        try {
+            if (allColumnsConstructor) {
+                Object[] values = new Object[columns.size() + 1];
+                values[0] = id.read(rs, firstIndex);
+                for (int i = 0; i < columns.size(); i++) {
+                    values[i + 1] = columns.get(i).read(rs, firstIndex + i + 1);
+                }
+                return readVersion(type.cast((Object) constructor.invokeExact(values)), rs, firstIndex);
+            }
+            T entity = type.cast((Object) constructor.invokeExact());
+            id.readInto(rs, firstIndex, entity);
+            for (int i = 0; i < columns.size(); i++) {
+                columns.get(i).readInto(rs, firstIndex + i + 1, entity);
+            }
+            return readVersion(entity, rs, firstIndex);
+        } catch (SQLException | RuntimeException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(STR."Unable to create \{type.getName()}", e);
+        }
+    }
+
+    /**
+     * Copy of the mapped fields of the entity, made with the same constructor as read().
+     */
+    public T copy(T entity) {
+        try {
+            T copy;
+            if (allColumnsConstructor) {
+                Object[] values = new Object[columns.size() + 1];
+                values[0] = id.get(entity);
+                for (int i = 0; i < columns.size(); i++) {
+                    values[i + 1] = columns.get(i).get(entity);
+                }
+                copy = type.cast((Object) constructor.invokeExact(values));
+            } else {
+                copy = type.cast((Object) constructor.invokeExact());
+                id.copy(entity, copy);
+                for (ColumnMetadata column : columns) {
+                    column.copy(entity, copy);
+                }
+            }
+            if (version != null) {
+                version.copy(entity, copy);
+            }
+            return copy;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(STR."Unable to copy \{type.getName()}", e);
+        }
+    }
+
+    private T readVersion(T entity, ResultSet rs, int firstIndex) throws SQLException {
+        if (version != null) {
+            version.readInto(rs, firstIndex + columns.size() + 1, entity);
+        }
+        return entity;
+    }
+
+    @Override
+    public String toString() {
+        return STR."\{type.getSimpleName()} -> \{table}(\{id}, \{columns})";
+    }
+}
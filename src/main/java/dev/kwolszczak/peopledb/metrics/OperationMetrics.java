@@ -0,0 +1,110 @@
+package dev.kwolszczak.peopledb.metrics;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of one operation of one entity type: calls, errors, rows and latency histogram.
+ */
+public class OperationMetrics implements OperationMetricsMXBean {
+
+    private final RepositoryMetrics registry;
+    private final String entity;
+    private final String operation;
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    OperationMetrics(RepositoryMetrics registry, String entity, String operation) {
+        this.registry = registry;
+        this.entity = entity;
+        this.operation = operation;
+    }
+
+    /**
+     * @param rows number of rows read or written
+     * @param sql  statement of the operation, only used by the slow query log
+     */
+    public void record(long nanos, long rows, boolean failed, String sql) {
+        calls.increment();
+        if (failed) {
+            errors.increment();
+        } else {
+            this.rows.add(rows);
+        }
+        latency.record(nanos);
+        registry.checkSlow(this, nanos, rows, failed, sql);
+    }
+
+    public OperationStats snapshot() {
+        LatencyHistogram.Snapshot histogram = latency.snapshot();
+        return new OperationStats(entity, operation, calls.sum(), errors.sum(), rows.sum(),
+                Duration.ofNanos(histogram.percentile(0.5)),
+                Duration.ofNanos(histogram.percentile(0.99)),
+                Duration.ofNanos(histogram.percentile(0.999)),
+                Duration.ofNanos(histogram.max()),
+                Duration.ofNanos(histogram.mean()));
+    }
+
+    public String getEntity() {
+        return entity;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    @Override
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public long getRows() {
+        return rows.sum();
+    }
+
+    @Override
+    public long getP50Micros() {
+        return micros(latency.snapshot().percentile(0.5));
+    }
+
+    @Override
+    public long getP99Micros() {
+        return micros(latency.snapshot().percentile(0.99));
+    }
+
+    @Override
+    public long getP999Micros() {
+        return micros(latency.snapshot().percentile(0.999));
+    }
+
+    @Override
+    public long getMaxMicros() {
+        return micros(latency.snapshot().max());
+    }
+
+    @Override
+    public long getMeanMicros() {
+        return micros(latency.snapshot().mean());
+    }
+
+    @Override
+    public void reset() {
+        calls.reset();
+        errors.reset();
+        rows.reset();
+        latency.reset();
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
@@ -0,0 +1,22 @@
+package dev.kwolszczak.peopledb.metrics;
+
+public interface OperationMetricsMXBean {
+
+    long getCalls();
+
+    long getErrors();
+
+    long getRows();
+
+    long getP50Micros();
+
+    long getP99Micros();
+
+    long getP999Micros();
+
+    long getMaxMicros();
+
+    long getMeanMicros();
+
+    void reset();
+}
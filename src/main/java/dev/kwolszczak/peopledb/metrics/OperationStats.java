@@ -0,0 +1,10 @@
+package dev.kwolszczak.peopledb.metrics;
+
+import java.time.Duration;
+
+/**
+ * Snapshot of metrics of one repository operation.
+ */
+public record OperationStats(String entity, String operation, long calls, long errors, long rows,
+                             Duration p50, Duration p99, Duration p999, Duration max, Duration mean) {
+}
@@ -0,0 +1,112 @@
+package dev.kwolszczak.peopledb.metrics;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Registry of repository operation metrics, by entity type and operation name (i.e. Person findById).
+ * Repositories record into the default registry unless they are given another one.
+ * <p>
+ * Operations slower than the slow query threshold are logged with their SQL to the "dev.kwolszczak.peopledb.slow"
+ * logger. Once publishToJmx() is called, every operation is also an MXBean:
+ * dev.kwolszczak.peopledb:type=RepositoryMetrics,entity=Person,operation=findById
+ */
+public class RepositoryMetrics {
+
+    public static final Duration DEFAULT_SLOW_QUERY_THRESHOLD = Duration.ofSeconds(1);
+    public static final String JMX_DOMAIN = "dev.kwolszczak.peopledb";
+
+    private static final Logger SLOW_QUERY_LOG = Logger.getLogger("dev.kwolszczak.peopledb.slow");
+    private static final RepositoryMetrics DEFAULT = new RepositoryMetrics();
+
+    private record Key(String entity, String operation) {
+    }
+
+    private final Map<Key, OperationMetrics> operations = new ConcurrentHashMap<>();
+    private volatile long slowQueryThresholdNanos = DEFAULT_SLOW_QUERY_THRESHOLD.toNanos();
+    private volatile MBeanServer mBeanServer;
+
+    public static RepositoryMetrics getDefault() {
+        return DEFAULT;
+    }
+
+    public OperationMetrics operation(Class<?> entityType, String operation) {
+        return operations.computeIfAbsent(new Key(entityType.getSimpleName(), operation), key -> {
+            OperationMetrics metrics = new OperationMetrics(this, key.entity(), key.operation());
+            register(metrics);
+            return metrics;
+        });
+    }
+
+    public Optional<OperationStats> stats(Class<?> entityType, String operation) {
+        return Optional.ofNullable(operations.get(new Key(entityType.getSimpleName(), operation)))
+                .map(OperationMetrics::snapshot);
+    }
+
+    public List<OperationStats> snapshot() {
+        return operations.values().stream()
+                .map(OperationMetrics::snapshot)
+                .toList();
+    }
+
+    public void reset() {
+        operations.values().forEach(OperationMetrics::reset);
+    }
+
+    /**
+     * @param threshold null disables the slow query log
+     */
+    public void setSlowQueryThreshold(Duration threshold) {
+        this.slowQueryThresholdNanos = threshold == null ? Long.MAX_VALUE : threshold.toNanos();
+    }
+
+    public Duration getSlowQueryThreshold() {
+        return slowQueryThresholdNanos == Long.MAX_VALUE ? null : Duration.ofNanos(slowQueryThresholdNanos);
+    }
+
+    void checkSlow(OperationMetrics metrics, long nanos, long rows, boolean failed, String sql) {
+        if (nanos >= slowQueryThresholdNanos && SLOW_QUERY_LOG.isLoggable(Level.WARNING)) {
+            SLOW_QUERY_LOG.warning(STR."Slow \{metrics.getEntity()} \{metrics.getOperation()} took \{Duration.ofNanos(nanos).toMillis()} ms, rows: \{rows}\{failed ? ", failed" : ""}, SQL: \{sql}");
+        }
+    }
+
+    /**
+     * Registers MXBeans of existing and future operations in the platform MBean server.
+     */
+    public void publishToJmx() {
+        publishToJmx(ManagementFactory.getPlatformMBeanServer());
+    }
+
+    public void publishToJmx(MBeanServer server) {
+        this.mBeanServer = server;
+        operations.values().forEach(this::register);
+    }
+
+    private void register(OperationMetrics metrics) {
+        MBeanServer server = mBeanServer;
+        if (server == null) {
+            return;
+        }
+        try {
+            server.registerMBean(metrics, objectName(metrics));
+        } catch (InstanceAlreadyExistsException e) {
+            // already published
+        } catch (JMException e) {
+            throw new IllegalStateException(STR."Unable to publish metrics of \{metrics.getEntity()} \{metrics.getOperation()}", e);
+        }
+    }
+
+    private ObjectName objectName(OperationMetrics metrics) throws JMException {
+        return new ObjectName(STR."\{JMX_DOMAIN}:type=RepositoryMetrics,entity=\{metrics.getEntity()},operation=\{metrics.getOperation()}");
+    }
+}
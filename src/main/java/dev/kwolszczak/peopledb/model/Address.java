@@ -1,19 +1,30 @@
 package dev.kwolszczak.peopledb.model;
 
+import dev.kwolszczak.peopledb.annotation.Column;
 import dev.kwolszczak.peopledb.annotation.Id;
+import dev.kwolszczak.peopledb.annotation.Table;
 
 import java.util.Objects;
 
+@Table("ADDRESS")
 public final class Address implements Entity {
     @Id
     private Long id;
+    @Column
     private final String streetAddress;
+    @Column
     private final String address2;
+    @Column
     private final String city;
+    @Column
     private final String state;
+    @Column
     private final String postcode;
+    @Column
     private final String country;
+    @Column
     private final String county;
+    @Column
     private final Region region;
 
     public Address(Long id, String streetAddress, String address2, String city, String state, String postcode,
@@ -36,7 +47,7 @@ public final class Address implements Entity {
 
     @Override
     public Long getId() {
-        return null;
+        return id;
     }
 
     @Override
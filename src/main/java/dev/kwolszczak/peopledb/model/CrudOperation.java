@@ -4,6 +4,14 @@ public enum CrudOperation {
     SAVE,
     UPDATE,
     FIND_BY_ID,
+    FIND_BY_IDS,
     FIND_ALL,
-    DELETE
+    FIND_PAGE,
+    DELETE,
+    DELETE_BY_IDS,
+    DELETE_WHERE,
+    UPSERT,
+    UPSERT_BY_KEY,
+    FIND_EXISTING_IDS,
+    FIND_EXISTING_KEYS
 }
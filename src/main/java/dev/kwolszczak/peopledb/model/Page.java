@@ -0,0 +1,15 @@
+package dev.kwolszczak.peopledb.model;
+
+import java.util.List;
+
+/**
+ * One page of keyset pagination.
+ * @param content    entities ordered by id
+ * @param nextAfterId continuation token - id to pass as afterId to get the next page, null on the last page
+ */
+public record Page<T>(List<T> content, Long nextAfterId) {
+
+    public boolean hasNext() {
+        return nextAfterId != null;
+    }
+}
@@ -1,27 +1,55 @@
 package dev.kwolszczak.peopledb.model;
 
 
+import dev.kwolszczak.peopledb.annotation.Column;
 import dev.kwolszczak.peopledb.annotation.Id;
+import dev.kwolszczak.peopledb.annotation.Table;
 
 import java.math.BigDecimal;
 import java.time.ZonedDateTime;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Supplier;
 
+@Table("PEOPLE")
 public class Person implements Entity  {
+
+    /**
+     * Fields written by update(), named like their columns.
+     */
+    public enum Field {
+        FIRST_NAME, LAST_NAME, DOB, SALARY, EMAIL, HOME_ADDRESS, BUSINESS_ADDRESS
+    }
+
     @Id
     private long id;
+    @Column
     private String firstName;
+    @Column
     private String lastName;
+    @Column
     private ZonedDateTime dob;
+    @Column
     private BigDecimal salary = new BigDecimal("0");
+    @Column
     private String email;
     private Optional<Address> homeAddress = Optional.empty();
     private Optional<Address> businessAddress = Optional.empty();
+    private Supplier<Address> homeAddressLoader;
+    private Supplier<Address> businessAddressLoader;
     private Set<Person> children = new HashSet<>();
     private Optional<Person> parent = Optional.empty();
+    private final Set<Field> dirtyFields = EnumSet.noneOf(Field.class);
+    private boolean tracked;
+
+    // for EntityMetadata
+    private Person() {
+    }
 
     public Person(String firstName, String lastName, ZonedDateTime dob) {
         this.firstName = firstName;
@@ -34,6 +62,7 @@ public class Person implements Entity  {
     }
 
     public void setSalary(BigDecimal salary) {
+        changed(Field.SALARY, this.salary, salary);
         this.salary = salary;
     }
 
@@ -42,10 +71,12 @@ public class Person implements Entity  {
     }
 
     public void setEmail(String email) {
+        changed(Field.EMAIL, this.email, email);
         this.email = email;
     }
 
     public void setFirstName(String firstName) {
+        changed(Field.FIRST_NAME, this.firstName, firstName);
         this.firstName = firstName;
     }
 
@@ -58,6 +89,7 @@ public class Person implements Entity  {
     }
 
     public void setLastName(String lastName) {
+        changed(Field.LAST_NAME, this.lastName, lastName);
         this.lastName = lastName;
     }
 
@@ -66,6 +98,7 @@ public class Person implements Entity  {
     }
 
     public void setDob(ZonedDateTime dob) {
+        changed(Field.DOB, this.dob, dob);
         this.dob = dob;
     }
 
@@ -80,10 +113,26 @@ public class Person implements Entity  {
     }
 
     public void setHomeAddress(Address homeAddress) {
+        // address behind a pending loader is unknown, so it counts as changed
+        if (homeAddressLoader != null || !Objects.equals(this.homeAddress.orElse(null), homeAddress)) {
+            dirtyFields.add(Field.HOME_ADDRESS);
+        }
         this.homeAddress = Optional.ofNullable(homeAddress);
+        this.homeAddressLoader = null;
+    }
+
+    /**
+     * Lazy home address - the loader is called on first getHomeAddress().
+     */
+    public void setHomeAddressLoader(Supplier<Address> homeAddressLoader) {
+        this.homeAddressLoader = homeAddressLoader;
     }
 
     public Optional<Address> getHomeAddress() {
+        if (homeAddressLoader != null) {
+            homeAddress = Optional.ofNullable(homeAddressLoader.get());
+            homeAddressLoader = null;
+        }
         return this.homeAddress;
     }
 
@@ -101,10 +150,25 @@ public class Person implements Entity  {
     }
 
     public void setBusinessAddress(Address businessAddress) {
+        if (businessAddressLoader != null || !Objects.equals(this.businessAddress.orElse(null), businessAddress)) {
+            dirtyFields.add(Field.BUSINESS_ADDRESS);
+        }
         this.businessAddress = Optional.ofNullable(businessAddress);
+        this.businessAddressLoader = null;
+    }
+
+    /**
+     * Lazy business address - the loader is called on first getBusinessAddress().
+     */
+    public void setBusinessAddressLoader(Supplier<Address> businessAddressLoader) {
+        this.businessAddressLoader = businessAddressLoader;
     }
 
     public Optional<Address> getBusinessAddress() {
+        if (businessAddressLoader != null) {
+            businessAddress = Optional.ofNullable(businessAddressLoader.get());
+            businessAddressLoader = null;
+        }
         return businessAddress;
     }
 
@@ -124,4 +188,58 @@ public class Person implements Entity  {
     public Set<Person> getChildren() {
             return children;
     }
+
+    /**
+     * Tells if an address is still to be loaded by its lazy loader.
+     */
+    public boolean hasPendingLoads() {
+        return homeAddressLoader != null || businessAddressLoader != null;
+    }
+
+    /**
+     * Copy of the row state: id, columns, addresses (pending loaders included) and change tracking.
+     * Parent and children are not copied.
+     */
+    public Person copy() {
+        Person copy = new Person(firstName, lastName, dob);
+        copy.id = id;
+        copy.salary = salary;
+        copy.email = email;
+        copy.homeAddress = homeAddress;
+        copy.homeAddressLoader = homeAddressLoader;
+        copy.businessAddress = businessAddress;
+        copy.businessAddressLoader = businessAddressLoader;
+        copy.dirtyFields.addAll(dirtyFields);
+        copy.tracked = tracked;
+        return copy;
+    }
+
+    private void changed(Field field, Object oldValue, Object newValue) {
+        if (!Objects.equals(oldValue, newValue)) {
+            dirtyFields.add(field);
+        }
+    }
+
+    /**
+     * Fields set to a different value since the person was loaded or written, meaningful only for tracked people.
+     */
+    public Set<Field> getDirtyFields() {
+        return Collections.unmodifiableSet(dirtyFields);
+    }
+
+    /**
+     * Tracked person was loaded or written by a repository, so its dirty fields are all that differ from its row.
+     * Person created with the constructor is not tracked and is always updated whole.
+     */
+    public boolean isTracked() {
+        return tracked;
+    }
+
+    /**
+     * Called by the repository when the person matches its row.
+     */
+    public void markClean() {
+        dirtyFields.clear();
+        tracked = true;
+    }
 }
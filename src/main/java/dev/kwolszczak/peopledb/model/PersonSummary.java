@@ -0,0 +1,7 @@
+package dev.kwolszczak.peopledb.model;
+
+/**
+ * Lightweight read-only view of a person, for callers which need only the name and email.
+ */
+public record PersonSummary(Long id, String firstName, String lastName, String email) {
+}
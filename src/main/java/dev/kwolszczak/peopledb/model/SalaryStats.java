@@ -0,0 +1,24 @@
+package dev.kwolszczak.peopledb.model;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Salary statistics of one group of people, see PeopleRepository.salaryStats().
+ * @param group       region, state, city or year of birth, null for people without it
+ * @param count       number of people in the group
+ * @param percentiles requested percentiles (0.5 for median) with their values, in requested order
+ */
+public record SalaryStats(String group, long count, BigDecimal sum, BigDecimal average, BigDecimal min, BigDecimal max,
+                          Map<Double, BigDecimal> percentiles) {
+
+    public SalaryStats {
+        percentiles = Collections.unmodifiableMap(new LinkedHashMap<>(percentiles));
+    }
+
+    public BigDecimal percentile(double percentile) {
+        return percentiles.get(percentile);
+    }
+}
@@ -0,0 +1,6 @@
+package dev.kwolszczak.peopledb.model;
+
+public enum UpsertOutcome {
+    INSERTED,
+    UPDATED
+}
@@ -0,0 +1,266 @@
+package dev.kwolszczak.peopledb.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+
+/**
+ * Generates a RepositoryCatalog for every repository with @SQL annotated methods: class {@code <Repository>_Catalog}
+ * in the package of the repository with the SQL as constants, registered in META-INF/services.
+ * Checks @Id fields too - one per entity, long or Long, as CrudRepository reads ids through Entity.getId().
+ * <p>
+ * Runs as a separate maven-compiler execution compiles it before the rest of the sources, see pom.xml.
+ * It's compiled without preview features, javac loads it into the build JVM.
+ */
+@SupportedAnnotationTypes({
+        RepositoryProcessor.SQL,
+        RepositoryProcessor.MULTI_SQL,
+        RepositoryProcessor.ID})
+public class RepositoryProcessor extends AbstractProcessor {
+
+    static final String SQL = "dev.kwolszczak.peopledb.annotation.SQL";
+    static final String MULTI_SQL = "dev.kwolszczak.peopledb.annotation.MultiSQL";
+    static final String ID = "dev.kwolszczak.peopledb.annotation.Id";
+    static final String CRUD_REPOSITORY = "dev.kwolszczak.peopledb.repository.CrudRepository";
+    static final String CATALOG = "dev.kwolszczak.peopledb.repository.RepositoryCatalog";
+
+    // repositories in the order they are met, sql by operation name in annotation order
+    private final Map<TypeElement, Map<String, String>> repositories = new LinkedHashMap<>();
+    private final List<String> generated = new ArrayList<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (roundEnv.processingOver()) {
+            writeServices();
+            return false;
+        }
+        for (TypeElement annotation : annotations) {
+            String name = annotation.getQualifiedName().toString();
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (name.equals(ID)) {
+                    checkId(element);
+                }
+            }
+        }
+        collectSql(roundEnv);
+        for (Map.Entry<TypeElement, Map<String, String>> repository : repositories.entrySet()) {
+            writeCatalog(repository.getKey(), repository.getValue());
+        }
+        repositories.clear();
+        return false;
+    }
+
+    /**
+     * Same precedence as the reflective lookup: methods with one @SQL first, then methods with repeated ones.
+     */
+    private void collectSql(RoundEnvironment roundEnv) {
+        List<ExecutableElement> single = new ArrayList<>();
+        List<ExecutableElement> multi = new ArrayList<>();
+        for (TypeElement type : typesOf(roundEnv)) {
+            for (Element member : type.getEnclosedElements()) {
+                if (member.getKind() != ElementKind.METHOD) {
+                    continue;
+                }
+                for (AnnotationMirror mirror : member.getAnnotationMirrors()) {
+                    String name = annotationName(mirror);
+                    if (name.equals(SQL)) {
+                        single.add((ExecutableElement) member);
+                    } else if (name.equals(MULTI_SQL)) {
+                        multi.add((ExecutableElement) member);
+                    }
+                }
+            }
+        }
+        for (ExecutableElement method : single) {
+            for (AnnotationMirror mirror : method.getAnnotationMirrors()) {
+                if (annotationName(mirror).equals(SQL)) {
+                    addSql(method, mirror);
+                }
+            }
+        }
+        for (ExecutableElement method : multi) {
+            for (AnnotationMirror mirror : method.getAnnotationMirrors()) {
+                if (annotationName(mirror).equals(MULTI_SQL)) {
+                    @SuppressWarnings("unchecked")
+                    List<? extends AnnotationValue> values = (List<? extends AnnotationValue>) value(mirror, "value");
+                    for (AnnotationValue sql : values) {
+                        addSql(method, (AnnotationMirror) sql.getValue());
+                    }
+                }
+            }
+        }
+    }
+
+    private Set<TypeElement> typesOf(RoundEnvironment roundEnv) {
+        Set<TypeElement> types = new LinkedHashSet<>();
+        for (Element root : roundEnv.getRootElements()) {
+            collectTypes(root, types);
+        }
+        return types;
+    }
+
+    private static void collectTypes(Element element, Set<TypeElement> types) {
+        if (element.getKind().isClass()) {
+            types.add((TypeElement) element);
+        }
+        for (Element enclosed : element.getEnclosedElements()) {
+            if (enclosed.getKind().isClass() || enclosed.getKind().isInterface()) {
+                collectTypes(enclosed, types);
+            }
+        }
+    }
+
+    private void addSql(ExecutableElement method, AnnotationMirror sql) {
+        TypeElement repository = (TypeElement) method.getEnclosingElement();
+        String operation = ((VariableElement) value(sql, "operationType")).getSimpleName().toString();
+        repositories.computeIfAbsent(repository, type -> new LinkedHashMap<>())
+                .putIfAbsent(operation, (String) value(sql, "value"));
+    }
+
+    private void writeCatalog(TypeElement repository, Map<String, String> sql) {
+        if (repository.getModifiers().contains(Modifier.PRIVATE) || repository.getModifiers().contains(Modifier.ABSTRACT)) {
+            // not accessible from the catalog or never instantiated, found with reflection at runtime
+            return;
+        }
+        TypeMirror entityType = entityType(repository.asType());
+        if (entityType == null) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                    "Entity type of repository can't be resolved at build time, no catalog generated", repository);
+            return;
+        }
+        String packageName = processingEnv.getElementUtils().getPackageOf(repository).getQualifiedName().toString();
+        String catalogName = flatName(repository) + "_Catalog";
+        String repositoryName = repository.getQualifiedName().toString();
+
+        StringBuilder source = new StringBuilder();
+        source.append("package ").append(packageName).append(";\n\n");
+        source.append("import dev.kwolszczak.peopledb.model.CrudOperation;\n\n");
+        source.append("import java.util.EnumMap;\n");
+        source.append("import java.util.Map;\n\n");
+        source.append("@javax.annotation.processing.Generated(\"").append(getClass().getName()).append("\")\n");
+        source.append("public final class ").append(catalogName).append(" implements ").append(CATALOG).append(" {\n\n");
+        for (Map.Entry<String, String> entry : sql.entrySet()) {
+            source.append("    public static final String ").append(entry.getKey()).append("_SQL = ")
+                    .append(processingEnv.getElementUtils().getConstantExpression(entry.getValue())).append(";\n");
+        }
+        source.append("\n    @Override\n    public Class<?> repositoryType() {\n        return ")
+                .append(repositoryName).append(".class;\n    }\n");
+        source.append("\n    @Override\n    public Class<?> entityType() {\n        return ")
+                .append(processingEnv.getTypeUtils().erasure(entityType)).append(".class;\n    }\n");
+        source.append("\n    @Override\n    public Map<CrudOperation, String> sql() {\n");
+        source.append("        Map<CrudOperation, String> sql = new EnumMap<>(CrudOperation.class);\n");
+        for (String operation : sql.keySet()) {
+            source.append("        sql.put(CrudOperation.").append(operation).append(", ").append(operation).append("_SQL);\n");
+        }
+        source.append("        return sql;\n    }\n}\n");
+
+        String qualifiedName = packageName.isEmpty() ? catalogName : packageName + "." + catalogName;
+        try {
+            JavaFileObject file = processingEnv.getFiler().createSourceFile(qualifiedName, repository);
+            try (Writer writer = file.openWriter()) {
+                writer.write(source.toString());
+            }
+            generated.add(qualifiedName);
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Unable to write catalog: " + e, repository);
+        }
+    }
+
+    /**
+     * @return type argument of CrudRepository in the superclass chain, null if it's a type variable
+     */
+    private TypeMirror entityType(TypeMirror type) {
+        while (type.getKind() == TypeKind.DECLARED) {
+            DeclaredType declared = (DeclaredType) type;
+            TypeElement element = (TypeElement) declared.asElement();
+            if (element.getQualifiedName().contentEquals(CRUD_REPOSITORY)) {
+                if (declared.getTypeArguments().size() != 1) {
+                    return null;
+                }
+                TypeMirror entity = declared.getTypeArguments().getFirst();
+                return entity.getKind() == TypeKind.DECLARED ? entity : null;
+            }
+            List<? extends TypeMirror> supertypes = processingEnv.getTypeUtils().directSupertypes(type);
+            if (supertypes.isEmpty()) {
+                return null;
+            }
+            // first direct supertype of a class is its superclass
+            type = supertypes.getFirst();
+        }
+        return null;
+    }
+
+    private void checkId(Element field) {
+        TypeMirror type = field.asType();
+        boolean validType = type.getKind() == TypeKind.LONG || type.toString().equals("java.lang.Long");
+        if (field.getKind() != ElementKind.FIELD || !validType) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "@Id must be a long or Long field", field);
+            return;
+        }
+        long ids = field.getEnclosingElement().getEnclosedElements().stream()
+                .filter(member -> member.getAnnotationMirrors().stream().anyMatch(mirror -> annotationName(mirror).equals(ID)))
+                .count();
+        if (ids > 1) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Entity can have only one @Id field", field);
+        }
+    }
+
+    private void writeServices() {
+        if (generated.isEmpty()) {
+            return;
+        }
+        Filer filer = processingEnv.getFiler();
+        try {
+            FileObject services = filer.createResource(StandardLocation.CLASS_OUTPUT, "", "META-INF/services/" + CATALOG);
+            try (Writer writer = services.openWriter()) {
+                for (String catalog : generated) {
+                    writer.write(catalog);
+                    writer.write('\n');
+                }
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Unable to register catalogs: " + e);
+        }
+    }
+
+    private static String flatName(TypeElement type) {
+        String name = type.getSimpleName().toString();
+        Element enclosing = type.getEnclosingElement();
+        while (enclosing instanceof TypeElement outer) {
+            name = outer.getSimpleName() + "_" + name;
+            enclosing = outer.getEnclosingElement();
+        }
+        return name;
+    }
+
+    private static String annotationName(AnnotationMirror mirror) {
+        return ((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().toString();
+    }
+
+    private static Object value(AnnotationMirror mirror, String name) {
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : mirror.getElementValues().entrySet()) {
+            if (entry.getKey().getSimpleName().contentEquals(name)) {
+                return entry.getValue().getValue();
+            }
+        }
+        throw new IllegalStateException("Annotation " + annotationName(mirror) + " has no value " + name);
+    }
+}
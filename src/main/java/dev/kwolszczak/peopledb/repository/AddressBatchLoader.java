@@ -0,0 +1,42 @@
+package dev.kwolszczak.peopledb.repository;
+
+import dev.kwolszczak.peopledb.model.Address;
+
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Collects ids of lazy addresses of people read together. First access to any of them
+ * loads all collected addresses with one findAllById query.
+ */
+final class AddressBatchLoader {
+
+    private final AddressRepository repository;
+    private final int maxSize;
+    private final Set<Long> pending = new LinkedHashSet<>();
+    private Map<Long, Address> loaded;
+
+    AddressBatchLoader(AddressRepository repository, int maxSize) {
+        this.repository = repository;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return false if the batch was already loaded or is full, the id has to go to a new batch then
+     */
+    synchronized boolean add(Long addressId) {
+        if (loaded != null || (pending.size() >= maxSize && !pending.contains(addressId))) {
+            return false;
+        }
+        pending.add(addressId);
+        return true;
+    }
+
+    synchronized Address get(Long addressId) {
+        if (loaded == null) {
+            loaded = repository.findAllById(pending, maxSize);
+        }
+        return loaded.get(addressId);
+    }
+}
@@ -0,0 +1,36 @@
+package dev.kwolszczak.peopledb.repository;
+
+import dev.kwolszczak.peopledb.model.Address;
+import dev.kwolszczak.peopledb.model.Region;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Indexes of ADDRESS columns in a result set, columns can be aliased with a prefix, i.e. "HOME_".
+ */
+record AddressColumns(int id, int streetAddress, int address2, int city, int state, int postcode, int county,
+                      int region, int country) {
+
+    static AddressColumns resolve(ColumnLabels labels, String prefix) {
+        return new AddressColumns(
+                labels.require(prefix + "ID"),
+                labels.require(prefix + "STREET_ADDRESS"),
+                labels.require(prefix + "ADDRESS2"),
+                labels.require(prefix + "CITY"),
+                labels.require(prefix + "STATE"),
+                labels.require(prefix + "POSTCODE"),
+                labels.require(prefix + "COUNTY"),
+                labels.require(prefix + "REGION"),
+                labels.require(prefix + "COUNTRY"));
+    }
+
+    Address read(ResultSet rs) throws SQLException {
+        String region = rs.getString(this.region);
+        Address address = new Address(rs.getString(streetAddress), rs.getString(address2), rs.getString(city),
+                rs.getString(state), rs.getString(postcode), rs.getString(country), rs.getString(county),
+                region == null ? null : Region.valueOf(region.toUpperCase()));
+        address.setId(rs.getLong(id));
+        return address;
+    }
+}
@@ -1,41 +1,60 @@
 package dev.kwolszczak.peopledb.repository;
 
 import dev.kwolszczak.peopledb.annotation.SQL;
+import dev.kwolszczak.peopledb.jdbc.ConnectionProvider;
+import dev.kwolszczak.peopledb.jdbc.StatementCache;
 import dev.kwolszczak.peopledb.model.Address;
 import dev.kwolszczak.peopledb.model.CrudOperation;
-import dev.kwolszczak.peopledb.model.Region;
 
+import javax.sql.DataSource;
 import java.sql.*;
 
 public class AddressRepository extends CrudRepository<Address> {
 
-    private static final String FIND_ADDRESS_SQL = "SELECT ID, STREET_ADDRESS, ADDRESS2, CITY,STATE, POSTCODE,COUNTY, REGION, COUNTRY FROM ADDRESS WHERE ID = ?";
+    private static final String FIND_ALL_ADDRESS_SQL = "SELECT ID, STREET_ADDRESS, ADDRESS2, CITY,STATE, POSTCODE,COUNTY, REGION, COUNTRY FROM ADDRESS";
+    private static final String FIND_ADDRESS_SQL = FIND_ALL_ADDRESS_SQL + " WHERE ID = ?";
+    private static final String FIND_ADDRESSES_SQL = FIND_ALL_ADDRESS_SQL + " WHERE ID = ANY(?)";
+    private static final String FIND_ADDRESS_PAGE_SQL = FIND_ALL_ADDRESS_SQL + " WHERE ID > ? ORDER BY ID FETCH FIRST ? ROWS ONLY";
+    private static final String UPSERT_ADDRESS_SQL = "MERGE INTO ADDRESS (STREET_ADDRESS, ADDRESS2, CITY, STATE, POSTCODE, COUNTY, REGION, COUNTRY, ID) KEY(ID) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String FIND_EXISTING_IDS_SQL = "SELECT ID FROM ADDRESS WHERE ID = ANY(?)";
+    private static final String DELETE_ADDRESS_SQL = "DELETE FROM ADDRESS WHERE ID = ?";
+    private static final String DELETE_ADDRESSES_SQL = "DELETE FROM ADDRESS WHERE ID = ANY(?)";
+    private static final String DELETE_ADDRESSES_WHERE_SQL = "DELETE FROM ADDRESS WHERE";
+    private final ColumnPlans<AddressColumns> columnPlans = new ColumnPlans<>(labels -> AddressColumns.resolve(labels, ""));
+
     public AddressRepository(Connection connection) {
         super(connection);
     }
 
+    public AddressRepository(StatementCache statements) {
+        super(statements);
+    }
+
+    public AddressRepository(UnitOfWork unitOfWork) {
+        super(unitOfWork);
+    }
+
+    public AddressRepository(DataSource dataSource) {
+        super(dataSource);
+    }
+
+    AddressRepository(ConnectionProvider connections, IdentityMap identityMap) {
+        super(connections, identityMap);
+    }
+
     @Override
     @SQL(operationType = CrudOperation.FIND_BY_ID, value = FIND_ADDRESS_SQL)
+    @SQL(operationType = CrudOperation.FIND_BY_IDS, value = FIND_ADDRESSES_SQL)
+    @SQL(operationType = CrudOperation.FIND_ALL, value = FIND_ALL_ADDRESS_SQL)
+    @SQL(operationType = CrudOperation.FIND_PAGE, value = FIND_ADDRESS_PAGE_SQL)
     Address mapForFind(ResultSet rs) throws SQLException {
-        Address address = null;
-        long id = rs.getLong("ID");
-        String streetAddress = rs.getString("STREET_ADDRESS");
-        String address2 = rs.getString("ADDRESS2");
-        String city = rs.getString("CITY");
-        String state = rs.getString("STATE");
-        String postcode = rs.getString("POSTCODE");
-        String county = rs.getString("COUNTY");
-        String region = rs.getString("REGION");
-        String country = rs.getString("COUNTRY");
-
-        address = new Address(streetAddress,address2,city,state,postcode,country,county, Region.valueOf(region.toUpperCase()));
-        address.setId(id);
-        return address;
+        return columnPlans.forResultSet(rs).read(rs);
     }
 
     @Override
-    void mapForDelete(Statement statement, String ids) throws SQLException {
-
+    RowMapper<Address> rowMapper(ResultSet rs) throws SQLException {
+        AddressColumns columns = columnPlans.forResultSet(rs);
+        return columns::read;
     }
 
     @Override
@@ -55,4 +74,27 @@ public class AddressRepository extends CrudRepository<Address> {
         ps.setString(7,entity.region().toString());
         ps.setString(8, entity.country());
     }
+
+    @Override
+    Address detach(Address entity) {
+        // only the id is mutable
+        return new Address(entity.id(), entity.streetAddress(), entity.address2(), entity.city(), entity.state(),
+                entity.postcode(), entity.country(), entity.county(), entity.region());
+    }
+
+    @Override
+    @SQL(value = UPSERT_ADDRESS_SQL, operationType = CrudOperation.UPSERT)
+    @SQL(value = FIND_EXISTING_IDS_SQL, operationType = CrudOperation.FIND_EXISTING_IDS)
+    void mapForUpsert(Address entity, PreparedStatement ps) throws SQLException {
+        mapForSave(entity, ps);
+        ps.setLong(9, entity.id());
+    }
+
+    @Override
+    @SQL(value = DELETE_ADDRESS_SQL, operationType = CrudOperation.DELETE)
+    @SQL(value = DELETE_ADDRESSES_SQL, operationType = CrudOperation.DELETE_BY_IDS)
+    @SQL(value = DELETE_ADDRESSES_WHERE_SQL, operationType = CrudOperation.DELETE_WHERE)
+    public void delete(Address address) {
+        super.delete(address);
+    }
 }
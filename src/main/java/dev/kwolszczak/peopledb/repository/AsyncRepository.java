@@ -0,0 +1,100 @@
+package dev.kwolszczak.peopledb.repository;
+
+import dev.kwolszczak.peopledb.model.Entity;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+/**
+ * Async facade of a repository. Every call runs on its own virtual thread, at most maxConcurrency calls
+ * run against the database at the same time, the others wait for a permit. Waiting virtual thread is
+ * unmounted from its carrier, so thousands of pending calls cost only their stacks.
+ * <p>
+ * By default the limit is the number of connections of the repository: pool size for repositories
+ * created with a DataSource, 1 for repositories sharing one connection (which are not thread safe).
+ */
+public class AsyncRepository<T extends Entity> implements AutoCloseable {
+
+    private final CrudRepository<T> repository;
+    private final Semaphore permits;
+    private final int maxConcurrency;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public AsyncRepository(CrudRepository<T> repository) {
+        this(repository, repository.connections.maxConcurrency());
+    }
+
+    /**
+     * @param maxConcurrency should not be bigger than the number of connections of the repository,
+     *                       extra calls would just wait for a connection inside the repository
+     */
+    public AsyncRepository(CrudRepository<T> repository, int maxConcurrency) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException(STR."Max concurrency must be positive, was: \{maxConcurrency}");
+        }
+        this.repository = repository;
+        this.maxConcurrency = maxConcurrency;
+        this.permits = new Semaphore(maxConcurrency, true);
+    }
+
+    public CompletableFuture<T> saveAsync(T entity) {
+        return submit(() -> repository.save(entity));
+    }
+
+    public CompletableFuture<Optional<T>> findByIdAsync(Long id) {
+        return submit(() -> repository.findById(id));
+    }
+
+    public CompletableFuture<Map<Long, T>> findAllByIdAsync(Collection<Long> ids) {
+        return submit(() -> repository.findAllById(ids));
+    }
+
+    public CompletableFuture<Void> deleteAsync(T entity) {
+        return submit(() -> {
+            repository.delete(entity);
+            return null;
+        });
+    }
+
+    private <R> CompletableFuture<R> submit(Supplier<R> call) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CompletionException(e);
+            }
+            try {
+                return call.get();
+            } finally {
+                permits.release();
+            }
+        }, executor);
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * Number of calls running against the database right now.
+     */
+    public int getActiveCount() {
+        return maxConcurrency - permits.availablePermits();
+    }
+
+    /**
+     * Waits for submitted calls to complete. Repository is not closed.
+     */
+    @Override
+    public void close() {
+        executor.close();
+    }
+}
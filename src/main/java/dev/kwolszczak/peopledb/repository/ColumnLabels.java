@@ -0,0 +1,37 @@
+package dev.kwolszczak.peopledb.repository;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Column label to index lookup of one result set shape. Metadata is read once, when the lookup is built.
+ */
+final class ColumnLabels {
+
+    private final Map<String, Integer> indexByLabel;
+
+    ColumnLabels(ResultSetMetaData metaData) throws SQLException {
+        int columnCount = metaData.getColumnCount();
+        indexByLabel = new HashMap<>(columnCount * 4 / 3 + 1);
+        for (int colIdx = 1; colIdx <= columnCount; colIdx++) {
+            indexByLabel.putIfAbsent(metaData.getColumnLabel(colIdx).toUpperCase(), colIdx);
+        }
+    }
+
+    /**
+     * @return column index or 0 if result set has no such column
+     */
+    int indexOf(String label) {
+        return indexByLabel.getOrDefault(label, 0);
+    }
+
+    int require(String label) {
+        int idx = indexOf(label);
+        if (idx == 0) {
+            throw new IllegalStateException(STR."Result set has no column: \{label}");
+        }
+        return idx;
+    }
+}
@@ -0,0 +1,41 @@
+package dev.kwolszczak.peopledb.repository;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Caches column index plan resolved from result set metadata per statement,
+ * so mapping a row doesn't touch metadata nor look up columns by name.
+ * Plans of closed statements are dropped by the garbage collector.
+ * The lookup is synchronized, so take the plan once per result set, not for every row.
+ */
+final class ColumnPlans<P> {
+
+    @FunctionalInterface
+    interface Resolver<P> {
+        P resolve(ColumnLabels labels) throws SQLException;
+    }
+
+    private final Map<Statement, P> plans = Collections.synchronizedMap(new WeakHashMap<>());
+    private final Resolver<P> resolver;
+
+    ColumnPlans(Resolver<P> resolver) {
+        this.resolver = resolver;
+    }
+
+    P forResultSet(ResultSet rs) throws SQLException {
+        Statement statement = rs.getStatement();
+        P plan = plans.get(statement);
+        if (plan == null) {
+            plan = resolver.resolve(new ColumnLabels(rs.getMetaData()));
+            if (statement != null) {
+                plans.put(statement, plan);
+            }
+        }
+        return plan;
+    }
+}
@@ -1,118 +1,982 @@
 package dev.kwolszczak.peopledb.repository;
 
-import dev.kwolszczak.peopledb.annotation.Id;
 import dev.kwolszczak.peopledb.annotation.MultiSQL;
 import dev.kwolszczak.peopledb.annotation.SQL;
+import dev.kwolszczak.peopledb.cache.EntityCache;
+import dev.kwolszczak.peopledb.exception.OptimisticLockException;
 import dev.kwolszczak.peopledb.exception.UnableToSaveException;
+import dev.kwolszczak.peopledb.jdbc.ConnectionPool;
+import dev.kwolszczak.peopledb.jdbc.ConnectionProvider;
+import dev.kwolszczak.peopledb.jdbc.StatementCache;
+import dev.kwolszczak.peopledb.jfr.CascadeSaveEvent;
+import dev.kwolszczak.peopledb.jfr.RowMappingEvent;
+import dev.kwolszczak.peopledb.jfr.SqlExecutionEvent;
+import dev.kwolszczak.peopledb.metrics.OperationMetrics;
+import dev.kwolszczak.peopledb.metrics.RepositoryMetrics;
 import dev.kwolszczak.peopledb.model.CrudOperation;
 import dev.kwolszczak.peopledb.model.Entity;
+import dev.kwolszczak.peopledb.model.Page;
+import dev.kwolszczak.peopledb.model.UpsertOutcome;
 
+import javax.sql.DataSource;
+import java.lang.reflect.ParameterizedType;
 import java.sql.*;
-import java.util.Arrays;
-import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public abstract class CrudRepository<T extends Entity> {
 
-    protected Connection connection;
-    private PreparedStatement savePS;
-    private PreparedStatement findByIdPS;
-    private PreparedStatement updatePS;
-    private PreparedStatement deletePS;
+    public static final int DEFAULT_BATCH_SIZE = 1_000;
+    public static final int DEFAULT_FETCH_SIZE = 1_000;
+    public static final int DEFAULT_IDS_CHUNK_SIZE = 1_000;
+
+    protected final ConnectionProvider connections;
+    protected final IdentityMap identityMap;
+    protected final Class<T> entityType;
+    private final Map<CrudOperation, String> sqlByOperation;
+    private volatile int batchSize = DEFAULT_BATCH_SIZE;
+    private volatile int fetchSize = DEFAULT_FETCH_SIZE;
+    private volatile EntityCache<T> secondLevelCache = EntityCache.none();
+    private volatile RepositoryMetrics metrics = RepositoryMetrics.getDefault();
+    private final Map<String, OperationMetrics> operationMetrics = new ConcurrentHashMap<>();
+    // index of the id parameter of UPSERT SQL used by the default mapForUpsert(), 0 until the first upsert
+    private volatile int upsertIdIndex;
 
     public CrudRepository(Connection connection) {
-        try {
-            this.connection = connection;
-            findByIdPS = connection.prepareStatement(getSQLFromAnnotation(CrudOperation.FIND_BY_ID));
-            updatePS = connection.prepareStatement(getSQLFromAnnotation(CrudOperation.UPDATE));
-            deletePS = connection.prepareStatement(getSQLFromAnnotation(CrudOperation.DELETE));
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+        this(new StatementCache(connection));
+    }
+
+    /**
+     * Repositories created with the same cache share prepared statements of one connection.
+     */
+    public CrudRepository(StatementCache statements) {
+        this(statements, IdentityMap.disabled());
+    }
+
+    /**
+     * Thread safe repository, every operation borrows a pooled connection with its own cached statements.
+     * Repositories created with the same ConnectionPool share its connections.
+     */
+    public CrudRepository(DataSource dataSource) {
+        this(ConnectionPool.of(dataSource), IdentityMap.disabled());
+    }
+
+    /**
+     * Repositories created with the same unit of work share its statements and identity map.
+     */
+    public CrudRepository(UnitOfWork unitOfWork) {
+        this(unitOfWork.getStatements(), unitOfWork.getIdentityMap());
+    }
+
+    CrudRepository(ConnectionProvider connections, IdentityMap identityMap) {
+        this(connections, identityMap, null);
+    }
+
+    /**
+     * @param entityType null to resolve it from the type argument of the repository class
+     */
+    @SuppressWarnings("unchecked")
+    CrudRepository(ConnectionProvider connections, IdentityMap identityMap, Class<T> entityType) {
+        this.connections = connections;
+        this.identityMap = identityMap;
+        RepositoryMetadata metadata = METADATA.get(getClass());
+        this.entityType = entityType != null ? entityType : (Class<T>) metadata.entityType();
+        if (this.entityType == null) {
+            throw new IllegalStateException(STR."Entity type of \{getClass().getName()} can't be resolved");
         }
+        this.sqlByOperation = metadata.sql();
     }
 
     public T save(T entity) {
         try {
-            savePS = connection.prepareStatement(getSQLFromAnnotation(CrudOperation.SAVE), Statement.RETURN_GENERATED_KEYS);
-            mapForSave(entity, savePS);
+            measured("save", getSql(CrudOperation.SAVE), saved -> 1, statements -> saveOne(entity, statements));
+        } catch (SQLException e) {
+            throw new UnableToSaveException(STR."Tried to save entity:\{entity}", e);
+        }
+        return entity;
+    }
 
-            int recordsAffected = savePS.executeUpdate();
-            ResultSet rs = savePS.getGeneratedKeys();
-            while (rs.next()) {
-                long id = rs.getLong(1);
-                entity.setId(id);
-                postSave(entity);
+    private T saveOne(T entity, StatementCache statements) throws SQLException {
+        PreparedStatement savePS = statements.prepare(getSql(CrudOperation.SAVE), Statement.RETURN_GENERATED_KEYS);
+        mapForSave(entity, savePS);
+
+        SqlExecutionEvent execution = executionEvent(CrudOperation.SAVE);
+        int recordsAffected = savePS.executeUpdate();
+        execution.finish(recordsAffected);
+        boolean saved;
+        try (ResultSet rs = savePS.getGeneratedKeys()) {
+            saved = rs.next();
+            if (saved) {
+                entity.setId(rs.getLong(1));
             }
-            //  System.out.println(entity);
-            // System.out.println(STR."Records affected: \{recordsAffected}");
-        } catch (SQLException e) {
-            e.printStackTrace();
-            throw new UnableToSaveException(STR."Tried to save entity:\{entity}");
         }
+        // cursor has to be closed before postSave - cascade saves reuse the same cached statement
+        if (saved) {
+            identityMap.put(entityType, entity);
+            cascade("postSave", 1, () -> postSave(entity));
+        }
+        //  System.out.println(entity);
+        // System.out.println(STR."Records affected: \{recordsAffected}");
         return entity;
     }
 
+    public int saveAll(Iterable<T> entities) {
+        return saveAll(entities, batchSize);
+    }
 
-    public Optional<T> findById(Long id) {
-        T entity = null;
+    /**
+     * Saves entities with JDBC batching: SAVE statement is filled with addBatch() and executed every batchSize rows.
+     * Generated keys are assigned back to every entity in the order they were added to the batch.
+     * @return number of saved entities (cascaded entities are not counted)
+     */
+    public int saveAll(Iterable<T> entities, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException(STR."Batch size must be positive, was: \{batchSize}");
+        }
+        List<T> batch = new ArrayList<>(batchSize);
+        try {
+            return measured("saveAll", getSql(CrudOperation.SAVE), saved -> saved, statements -> {
+                int saved = 0;
+                PreparedStatement ps = statements.prepare(getSql(CrudOperation.SAVE), Statement.RETURN_GENERATED_KEYS);
+                for (T entity : entities) {
+                    batch.add(entity);
+                    if (batch.size() == batchSize) {
+                        saved += saveBatch(batch, batchSize, ps);
+                        batch.clear();
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    saved += saveBatch(batch, batchSize, ps);
+                }
+                return saved;
+            });
+        } catch (SQLException e) {
+            throw new UnableToSaveException(STR."Tried to save batch of \{batch.size()} entities", e);
+        }
+    }
+
+    private int saveBatch(List<T> batch, int batchSize, PreparedStatement ps) throws SQLException {
+        cascade("preSaveAll", batch.size(), () -> preSaveAll(batch, batchSize));
         try {
-            findByIdPS.setLong(1, id);
-            ResultSet rs = findByIdPS.executeQuery();
+            for (T entity : batch) {
+                mapForSave(entity, ps);
+                ps.addBatch();
+            }
+            SqlExecutionEvent execution = executionEvent(CrudOperation.SAVE);
+            ps.executeBatch();
+            execution.finish(batch.size());
+        } catch (SQLException e) {
+            // statement is cached, it must not keep rows of failed batch
+            ps.clearBatch();
+            throw e;
+        }
+        try (ResultSet rs = ps.getGeneratedKeys()) {
+            int idx = 0;
             while (rs.next()) {
-                entity = mapForFind(rs);
+                T entity = batch.get(idx++);
+                entity.setId(rs.getLong(1));
+                identityMap.put(entityType, entity);
+            }
+            if (idx != batch.size()) {
+                throw new UnableToSaveException(STR."Expected \{batch.size()} generated keys, got: \{idx}");
             }
-            System.out.println(entity);
+        }
+        cascade("postSaveAll", batch.size(), () -> postSaveAll(batch, batchSize));
+        return batch.size();
+    }
+
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException(STR."Batch size must be positive, was: \{batchSize}");
+        }
+        this.batchSize = batchSize;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+
+    public Optional<T> findById(Long id) {
+        T entity = identityMap.get(entityType, id);
+        if (entity != null) {
+            return Optional.of(entity);
+        }
+        entity = secondLevelCache.get(id);
+        if (entity != null) {
+            return Optional.of(identityMap.putIfAbsent(entityType, detach(entity)));
+        }
+        long load = secondLevelCache.startLoad(id);
+        List<T> read = new ArrayList<>(1);
+        try {
+            entity = measured("findById", getSql(CrudOperation.FIND_BY_ID), found -> found == null ? 0 : 1, statements -> {
+                T found = null;
+                PreparedStatement findByIdPS = statements.prepare(getSql(CrudOperation.FIND_BY_ID));
+                findByIdPS.setLong(1, id);
+                SqlExecutionEvent execution = executionEvent(CrudOperation.FIND_BY_ID);
+                try (ResultSet rs = findByIdPS.executeQuery()) {
+                    execution.end();
+                    RowMappingEvent mapping = RowMappingEvent.begin(CrudOperation.FIND_BY_ID.name(), entityType);
+                    RowMapper<T> mapper = rowMapper(rs);
+                    while (rs.next()) {
+                        T mapped = mapper.map(rs);
+                        read.add(mapped);
+                        found = identityMap.putIfAbsent(entityType, mapped);
+                    }
+                    mapping.finish(found == null ? 0 : 1);
+                }
+                execution.finish(found == null ? 0 : 1);
+                return found;
+            });
         } catch (SQLException e) {
             throw new RuntimeException(e);
+        } finally {
+            // the row as read, not the instance of the identity map which may have unsaved changes
+            T loaded = read.isEmpty() ? null : read.getLast();
+            secondLevelCache.putLoaded(id, loaded == null || !isCacheable(loaded) ? null : detach(loaded), load);
         }
         return Optional.ofNullable(entity);
     }
 
+    public Map<Long, T> findAllById(Collection<Long> ids) {
+        return findAllById(ids, DEFAULT_IDS_CHUNK_SIZE);
+    }
+
+    /**
+     * Multi-get: one query per chunk of ids instead of one query per id.
+     * FIND_BY_IDS SQL binds the ids as one array parameter, i.e. "WHERE ID = ANY(?)",
+     * so the same cached statement and query plan serve every chunk regardless of its size.
+     * @return found entities keyed by id, missing ids are not in the map
+     */
+    public Map<Long, T> findAllById(Collection<Long> ids, int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException(STR."Chunk size must be positive, was: \{chunkSize}");
+        }
+        Map<Long, T> found = new HashMap<>();
+        Long[] distinctIds = ids.stream()
+                .filter(Objects::nonNull)
+                .distinct()
+                .filter(id -> {
+                    // already loaded in this unit of work
+                    T mapped = identityMap.get(entityType, id);
+                    if (mapped != null) {
+                        found.put(id, mapped);
+                    }
+                    return mapped == null;
+                })
+                .toArray(Long[]::new);
+        if (distinctIds.length == 0) {
+            return found;
+        }
+        try {
+            measured("findAllById", getSql(CrudOperation.FIND_BY_IDS), Map::size, statements -> {
+                PreparedStatement findByIdsPS = statements.prepare(getSql(CrudOperation.FIND_BY_IDS));
+                for (int from = 0; from < distinctIds.length; from += chunkSize) {
+                    Long[] chunk = Arrays.copyOfRange(distinctIds, from, Math.min(from + chunkSize, distinctIds.length));
+                    findByIdsPS.setArray(1, statements.getConnection().createArrayOf("BIGINT", chunk));
+                    SqlExecutionEvent execution = executionEvent(CrudOperation.FIND_BY_IDS);
+                    int rows = 0;
+                    try (ResultSet rs = findByIdsPS.executeQuery()) {
+                        execution.end();
+                        RowMappingEvent mapping = RowMappingEvent.begin(CrudOperation.FIND_BY_IDS.name(), entityType);
+                        RowMapper<T> mapper = rowMapper(rs);
+                        while (rs.next()) {
+                            T entity = identityMap.putIfAbsent(entityType, mapper.map(rs));
+                            found.put(entity.getId(), entity);
+                            rows++;
+                        }
+                        mapping.finish(rows);
+                    }
+                    execution.finish(rows);
+                }
+                return found;
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        return found;
+    }
+
+    /**
+     * Lazy scan of all entities with one query. Rows are mapped while the stream is consumed,
+     * the cursor and its statement are released when the stream is closed, so use it in try-with-resources.
+     * Statement is not taken from the statement cache - the cursor stays open while the stream is in use.
+     * Scanned entities are not kept in the identity map, so memory stays constant.
+     * With a connection pool the stream holds its connection until it's closed. Repository calls made while it's open,
+     * lazy loads of mapped entities included, take another connection: with every connection of the pool held by
+     * open streams they wait for the borrow timeout and fail. Keep fewer streams open at a time than the pool size.
+     */
+    public Stream<T> findAll() {
+        return query("findAll", getSql(CrudOperation.FIND_ALL), ps -> {
+        });
+    }
+
+    /**
+     * Runs the query on a leased connection and streams mapped rows, see findAll().
+     * The operation is recorded in metrics when the stream is closed, with the number of consumed rows.
+     */
+    protected Stream<T> query(String operation, String sql, StatementBinder binder) {
+        return query(operation, sql, binder, rowMapperOfFirstRow());
+    }
+
+    /**
+     * query() with rows mapped by the mapper, i.e. for aggregates or projections.
+     */
+    protected <R> Stream<R> query(String operation, String sql, StatementBinder binder, RowMapper<R> mapper) {
+        OperationMetrics operationMetrics = operationMetrics(operation);
+        long start = System.nanoTime();
+        ConnectionProvider.Lease lease = null;
+        PreparedStatement ps = null;
+        try {
+            lease = connections.open();
+            ps = lease.statements().getConnection().prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(fetchSize);
+            binder.bind(ps);
+            long[] rows = new long[1];
+            SqlExecutionEvent execution = SqlExecutionEvent.begin(operation, entityType, sql);
+            ResultSet rs = ps.executeQuery();
+            execution.end();
+            // rows are mapped while the stream is consumed, the mapping event spans the whole consumption
+            RowMappingEvent mapping = RowMappingEvent.begin(operation, entityType);
+            return stream(ps, rs, mapper)
+                    .peek(row -> rows[0]++)
+                    .onClose(closing(lease))
+                    .onClose(() -> {
+                        mapping.finish(rows[0]);
+                        execution.finish(rows[0]);
+                        operationMetrics.record(System.nanoTime() - start, rows[0], false, sql);
+                    });
+        } catch (SQLException | RuntimeException e) {
+            closeQuietly(ps);
+            closing(lease).run();
+            operationMetrics.record(System.nanoTime() - start, 0, true, sql);
+            throw e instanceof SQLException ? new RuntimeException(e) : (RuntimeException) e;
+        }
+    }
+
+    @FunctionalInterface
+    protected interface StatementBinder {
+        void bind(PreparedStatement ps) throws SQLException;
+    }
+
+    @FunctionalInterface
+    protected interface RowMapper<R> {
+        R map(ResultSet rs) throws SQLException;
+    }
+
+    @FunctionalInterface
+    protected interface StatementWork<R> {
+        R apply(StatementCache statements) throws SQLException;
+    }
+
+    /**
+     * Runs work with statements of a leased connection. Work of nested repository calls made by the same thread
+     * (cascades) joins the lease, so it runs on the same connection and, with a pool, in the same transaction.
+     */
+    protected <R> R inConnection(StatementWork<R> work) throws SQLException {
+        try (ConnectionProvider.Lease lease = connections.acquire()) {
+            R result = work.apply(lease.statements());
+            lease.success();
+            return result;
+        }
+    }
+
+    /**
+     * inConnection() recorded in metrics as the operation.
+     * @param sql  statement of the operation, for the slow query log
+     * @param rows number of rows the result stands for
+     */
+    protected <R> R measured(String operation, String sql, ToLongFunction<R> rows, StatementWork<R> work) throws SQLException {
+        OperationMetrics operationMetrics = operationMetrics(operation);
+        long start = System.nanoTime();
+        R result;
+        try {
+            result = inConnection(work);
+        } catch (SQLException | RuntimeException e) {
+            operationMetrics.record(System.nanoTime() - start, 0, true, sql);
+            throw e;
+        }
+        operationMetrics.record(System.nanoTime() - start, rows.applyAsLong(result), false, sql);
+        return result;
+    }
+
+    private OperationMetrics operationMetrics(String operation) {
+        OperationMetrics operationMetrics = this.operationMetrics.get(operation);
+        if (operationMetrics == null) {
+            operationMetrics = this.operationMetrics.computeIfAbsent(operation, name -> metrics.operation(entityType, name));
+        }
+        return operationMetrics;
+    }
+
+    private static Runnable closing(ConnectionProvider.Lease lease) {
+        return () -> {
+            if (lease == null) {
+                return;
+            }
+            try {
+                lease.close();
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        };
+    }
 
+    public void forEach(Consumer<? super T> action) {
+        try (Stream<T> entities = findAll()) {
+            entities.forEach(action);
+        }
+    }
+
+    /**
+     * Maps rows of the cursor lazily, statement (and its result set) is closed when the stream is closed.
+     */
+    protected Stream<T> stream(Statement statement, ResultSet rs) {
+        return stream(statement, rs, rowMapperOfFirstRow());
+    }
+
+    /**
+     * rowMapper() of the result set, made when the first row is mapped - for streams, which get the mapper
+     * before the query runs.
+     */
+    private RowMapper<T> rowMapperOfFirstRow() {
+        return new RowMapper<>() {
+            private RowMapper<T> mapper;
+
+            @Override
+            public T map(ResultSet rs) throws SQLException {
+                if (mapper == null) {
+                    mapper = rowMapper(rs);
+                }
+                return mapper.map(rs);
+            }
+        };
+    }
+
+    protected <R> Stream<R> stream(Statement statement, ResultSet rs, RowMapper<R> mapper) {
+        Spliterator<R> rows = new Spliterators.AbstractSpliterator<>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super R> action) {
+                try {
+                    if (!rs.next()) {
+                        return false;
+                    }
+                    action.accept(mapper.map(rs));
+                    return true;
+                } catch (SQLException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        return StreamSupport.stream(rows, false).onClose(() -> closeQuietly(statement));
+    }
+
+    /**
+     * Keyset pagination: page of entities with id greater than afterId, ordered by id.
+     * FIND_PAGE SQL binds afterId as the first and the row limit as the second parameter,
+     * so every page is an index seek no matter how deep it is.
+     * @param afterId continuation token from the previous page, null for the first page
+     */
+    public Page<T> findPage(Long afterId, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException(STR."Page limit must be positive, was: \{limit}");
+        }
+        try {
+            return measured("findPage", getSql(CrudOperation.FIND_PAGE), page -> page.content().size(), statements -> {
+                List<T> content = new ArrayList<>(limit);
+                boolean hasNext = false;
+                PreparedStatement findPagePS = statements.prepare(getSql(CrudOperation.FIND_PAGE));
+                findPagePS.setLong(1, afterId == null ? Long.MIN_VALUE : afterId);
+                // one row more than requested tells if there is a next page
+                findPagePS.setInt(2, limit + 1);
+                SqlExecutionEvent execution = executionEvent(CrudOperation.FIND_PAGE);
+                try (ResultSet rs = findPagePS.executeQuery()) {
+                    execution.end();
+                    RowMappingEvent mapping = RowMappingEvent.begin(CrudOperation.FIND_PAGE.name(), entityType);
+                    RowMapper<T> mapper = rowMapper(rs);
+                    while (rs.next()) {
+                        if (content.size() == limit) {
+                            hasNext = true;
+                            break;
+                        }
+                        content.add(identityMap.putIfAbsent(entityType, mapper.map(rs)));
+                    }
+                    mapping.finish(content.size());
+                }
+                execution.finish(content.size());
+                Long nextAfterId = hasNext ? content.getLast().getId() : null;
+                return new Page<>(content, nextAfterId);
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void setFetchSize(int fetchSize) {
+        if (fetchSize < 0) {
+            throw new IllegalArgumentException(STR."Fetch size can't be negative, was: \{fetchSize}");
+        }
+        this.fetchSize = fetchSize;
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * Cache consulted by findById after the identity map. The cache can be shared by repositories of the same
+     * entity type, entries are invalidated by update and delete made through any of them.
+     * It keeps copies made by detach(), entities which can't be copied or are not isCacheable() are not cached.
+     */
+    public void setSecondLevelCache(EntityCache<T> secondLevelCache) {
+        this.secondLevelCache = secondLevelCache == null ? EntityCache.none() : secondLevelCache;
+    }
+
+    public EntityCache<T> getSecondLevelCache() {
+        return secondLevelCache;
+    }
+
+    /**
+     * Number of operations the repository can run at the same time: pool size for repositories
+     * created with a DataSource, 1 for repositories sharing one connection.
+     */
+    public int getMaxConcurrency() {
+        return connections.maxConcurrency();
+    }
+
+    /**
+     * Registry the operations of this repository are recorded in, RepositoryMetrics.getDefault() unless set.
+     */
+    public void setMetrics(RepositoryMetrics metrics) {
+        this.metrics = metrics;
+        operationMetrics.clear();
+    }
+
+    public RepositoryMetrics getMetrics() {
+        return metrics;
+    }
+
+    private static void closeQuietly(Statement statement) {
+        if (statement == null) {
+            return;
+        }
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            // nothing more to release
+        }
+    }
+
+    /**
+     * Writes the entity with the SQL of updateSql(), nothing is run when the entity has no changes.
+     * @throws OptimisticLockException when the entity is versioned and its version is not the one in the table
+     */
     public void update(T entity) {
+        String sql = updateSql(entity);
+        if (sql == null) {
+            return;
+        }
         try {
-            mapForUpdate(entity, updatePS);
-            updatePS.executeUpdate();
+            measured("update", sql, updated -> updated, statements -> {
+                PreparedStatement updatePS = statements.prepare(sql);
+                mapForUpdate(entity, updatePS);
+                SqlExecutionEvent execution = SqlExecutionEvent.begin(CrudOperation.UPDATE.name(), entityType, sql);
+                int updated = updatePS.executeUpdate();
+                execution.finish(updated);
+                if (updated == 0 && isVersioned()) {
+                    throw optimisticLockFailure(entity);
+                }
+                return updated;
+            });
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
+        updated(entity);
+    }
+
+    /**
+     * Updates entities with JDBC batches of batchSize rows. Entities are grouped by their updateSql(),
+     * so every set of changed columns is one cached statement, entities without changes are skipped.
+     * With a single connection, batches written before an OptimisticLockException are left to the caller's transaction.
+     * @return number of updated entities
+     */
+    public int updateAll(Collection<T> entities) {
+        Map<String, List<T>> bySql = new LinkedHashMap<>();
+        for (T entity : entities) {
+            String sql = updateSql(entity);
+            if (sql != null) {
+                bySql.computeIfAbsent(sql, key -> new ArrayList<>()).add(entity);
+            }
+        }
+        if (bySql.isEmpty()) {
+            return 0;
+        }
+        int updated;
+        try {
+            updated = measured("updateAll", getSql(CrudOperation.UPDATE), rows -> rows, statements -> {
+                int rows = 0;
+                for (Map.Entry<String, List<T>> group : bySql.entrySet()) {
+                    PreparedStatement updatePS = statements.prepare(group.getKey());
+                    updateInBatches(group.getKey(), group.getValue(), updatePS);
+                    rows += group.getValue().size();
+                }
+                return rows;
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        bySql.values().forEach(group -> group.forEach(this::updated));
+        return updated;
+    }
+
+    private void updated(T entity) {
+        postUpdate(entity);
+        identityMap.put(entityType, entity);
+        secondLevelCache.invalidate(entity.getId());
+    }
+
+    private OptimisticLockException optimisticLockFailure(T entity) {
+        return new OptimisticLockException(STR."\{entityType.getSimpleName()} \{entity.getId()} was changed or deleted by another transaction");
+    }
+
+    /**
+     * Saves a new entity or updates a saved one without reading it first, see upsertAll().
+     */
+    public UpsertOutcome saveOrUpdate(T entity) {
+        return upsertAll(List.of(entity)).getFirst();
+    }
+
+    public List<UpsertOutcome> upsertAll(Collection<T> entities) {
+        return upsertAll(entities, batchSize);
+    }
+
+    /**
+     * Upsert by id. Entities without id (or with id 0) are saved like with saveAll(), the others are written with UPSERT SQL
+     * (i.e. "MERGE INTO ... KEY(ID)") in JDBC batches of batchSize rows, so a row deleted in the meantime
+     * is inserted again with the id of the entity.
+     * Before every batch one FIND_EXISTING_IDS query ("WHERE ID = ANY(?)") tells which rows are already there,
+     * so it's two round trips per batch instead of a find and a save per entity.
+     * MERGE itself is atomic - concurrent upserts never insert duplicates, a row inserted by another writer
+     * between the two statements is updated but still reported as INSERTED.
+     * UPSERT SQL binds parameters of SAVE SQL followed by the id, see mapForUpsert().
+     * @return outcome of every entity, in iteration order
+     */
+    public List<UpsertOutcome> upsertAll(Collection<T> entities, int batchSize) {
+        return upsert("upsertAll", entities, batchSize, false);
     }
 
-    private Long getIdByAnnotation(T entity) {
-        return Arrays.stream(entity.getClass().getDeclaredFields())
-                .filter(field -> field.isAnnotationPresent(Id.class))
-                .map(field -> {
-                    try {
-                        field.setAccessible(true);
-                        return field.getLong(entity);
-                    } catch (IllegalAccessException e) {
-                        throw new RuntimeException(e);
+    public UpsertOutcome saveOrUpdateByKey(T entity) {
+        return upsertAllByKey(List.of(entity)).getFirst();
+    }
+
+    public List<UpsertOutcome> upsertAllByKey(Collection<T> entities) {
+        return upsertAllByKey(entities, batchSize);
+    }
+
+    /**
+     * Upsert by natural key, i.e. EMAIL of a person, for records coming from systems which don't know our ids.
+     * UPSERT_BY_KEY SQL ("MERGE INTO ... KEY(EMAIL)") binds the parameters of SAVE SQL, ids of inserted
+     * and updated rows are assigned back to the entities. FIND_EXISTING_KEYS SQL selects the keys matching
+     * the array parameter. Works like upsertAll() otherwise; entities with null key are always inserted.
+     * The key column should be unique, MERGE fails when more rows have the same key.
+     * @return outcome of every entity, in iteration order
+     */
+    public List<UpsertOutcome> upsertAllByKey(Collection<T> entities, int batchSize) {
+        return upsert("upsertAllByKey", entities, batchSize, true);
+    }
+
+    private List<UpsertOutcome> upsert(String operation, Collection<T> entities, int batchSize, boolean byKey) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException(STR."Batch size must be positive, was: \{batchSize}");
+        }
+        CrudOperation upsert = byKey ? CrudOperation.UPSERT_BY_KEY : CrudOperation.UPSERT;
+        String sql = getSql(upsert);
+        if (sql == null || sql.isEmpty()) {
+            throw new UnsupportedOperationException(STR."\{getClass().getSimpleName()} has no \{upsert} SQL");
+        }
+        UpsertOutcome[] outcomes = new UpsertOutcome[entities.size()];
+        try {
+            measured(operation, sql, rows -> rows, statements -> {
+                PreparedStatement upsertPS = statements.prepare(sql, byKey ? Statement.RETURN_GENERATED_KEYS : Statement.NO_GENERATED_KEYS);
+                List<T> inserts = new ArrayList<>();
+                List<T> batch = new ArrayList<>(batchSize);
+                List<Integer> positions = new ArrayList<>(batchSize);
+                int position = 0;
+                for (T entity : entities) {
+                    if (!byKey && isNew(entity)) {
+                        inserts.add(entity);
+                        outcomes[position++] = UpsertOutcome.INSERTED;
+                        continue;
                     }
-                })
-                .findFirst().orElseThrow(() -> new RuntimeException("No ID annotated with @ID"));
+                    batch.add(entity);
+                    positions.add(position++);
+                    if (batch.size() == batchSize) {
+                        upsertBatch(batch, batchSize, positions, outcomes, upsertPS, statements, byKey);
+                        batch.clear();
+                        positions.clear();
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    upsertBatch(batch, batchSize, positions, outcomes, upsertPS, statements, byKey);
+                }
+                if (!inserts.isEmpty()) {
+                    saveAll(inserts, batchSize);
+                }
+                return outcomes.length;
+            });
+        } catch (SQLException e) {
+            throw new UnableToSaveException(STR."Tried to upsert \{entities.size()} entities", e);
+        }
+        return Arrays.asList(outcomes);
     }
 
-    public void delete(T entity) {
+    /**
+     * Entities with primitive ids (Person) have id 0 until saved.
+     */
+    private static boolean isNew(Entity entity) {
+        Long id = entity.getId();
+        return id == null || id == 0;
+    }
+
+    private void upsertBatch(List<T> batch, int batchSize, List<Integer> positions, UpsertOutcome[] outcomes,
+                             PreparedStatement ps, StatementCache statements, boolean byKey) throws SQLException {
+        // referenced entities have to exist before the rows pointing at them
+        cascade("preSaveAll", batch.size(), () -> preSaveAll(batch, batchSize));
+        Set<Object> existing = findExisting(batch, statements, byKey);
+        Set<Object> batchKeys = new HashSet<>();
+        for (int i = 0; i < batch.size(); i++) {
+            Object key = byKey ? naturalKey(batch.get(i)) : batch.get(i).getId();
+            // the second row with the same key updates the first one
+            boolean updated = key != null && (existing.contains(key) || !batchKeys.add(key));
+            outcomes[positions.get(i)] = updated ? UpsertOutcome.UPDATED : UpsertOutcome.INSERTED;
+        }
         try {
-            deletePS.setLong(1, getIdByAnnotation(entity));
-            boolean rs = deletePS.execute();
+            for (T entity : batch) {
+                if (byKey) {
+                    mapForSave(entity, ps);
+                } else {
+                    mapForUpsert(entity, ps);
+                }
+                ps.addBatch();
+            }
+            executeBatch(byKey ? CrudOperation.UPSERT_BY_KEY : CrudOperation.UPSERT, ps, batch.size());
+        } catch (SQLException e) {
+            // statement is cached, it must not keep rows of failed batch
+            ps.clearBatch();
+            throw e;
+        }
+        if (byKey) {
+            try (ResultSet rs = ps.getGeneratedKeys()) {
+                int idx = 0;
+                while (rs.next()) {
+                    batch.get(idx++).setId(rs.getLong(1));
+                }
+                if (idx != batch.size()) {
+                    throw new UnableToSaveException(STR."Expected \{batch.size()} generated keys, got: \{idx}");
+                }
+            }
+        }
+        // MERGE wrote every column
+        batch.forEach(this::updated);
+    }
+
+    private Set<Object> findExisting(List<T> batch, StatementCache statements, boolean byKey) throws SQLException {
+        CrudOperation operation = byKey ? CrudOperation.FIND_EXISTING_KEYS : CrudOperation.FIND_EXISTING_IDS;
+        Object[] keys = batch.stream()
+                .map(entity -> byKey ? naturalKey(entity) : entity.getId())
+                .filter(Objects::nonNull)
+                .distinct()
+                .toArray(byKey ? String[]::new : Long[]::new);
+        Set<Object> existing = new HashSet<>();
+        if (keys.length == 0) {
+            return existing;
+        }
+        PreparedStatement findPS = statements.prepare(getSql(operation));
+        findPS.setArray(1, statements.getConnection().createArrayOf(byKey ? "VARCHAR" : "BIGINT", keys));
+        SqlExecutionEvent execution = executionEvent(operation);
+        try (ResultSet rs = findPS.executeQuery()) {
+            execution.end();
+            while (rs.next()) {
+                existing.add(byKey ? rs.getString(1) : rs.getLong(1));
+            }
+        }
+        execution.finish(existing.size());
+        return existing;
+    }
+
+    /**
+     * @return number of deleted rows
+     */
+    public int deleteAll(Collection<T> entities) {
+        return deleteAllById(entities.stream().map(T::getId).toList());
+    }
+
+    public int deleteAllById(Collection<Long> ids) {
+        return deleteAllById(ids, DEFAULT_IDS_CHUNK_SIZE);
+    }
+
+    /**
+     * Bulk delete: one statement per chunk of ids. DELETE_BY_IDS SQL binds the ids as one array parameter,
+     * i.e. "WHERE ID = ANY(?)", so the same cached statement and query plan serve every chunk.
+     * @return number of deleted rows
+     */
+    public int deleteAllById(Collection<Long> ids, int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException(STR."Chunk size must be positive, was: \{chunkSize}");
+        }
+        Long[] distinctIds = ids.stream()
+                .filter(Objects::nonNull)
+                .distinct()
+                .toArray(Long[]::new);
+        if (distinctIds.length == 0) {
+            return 0;
+        }
+        int deleted;
+        try {
+            deleted = measured("deleteAll", getSql(CrudOperation.DELETE_BY_IDS), rows -> rows, statements -> {
+                PreparedStatement deletePS = statements.prepare(getSql(CrudOperation.DELETE_BY_IDS));
+                int rows = 0;
+                for (int from = 0; from < distinctIds.length; from += chunkSize) {
+                    Long[] chunk = Arrays.copyOfRange(distinctIds, from, Math.min(from + chunkSize, distinctIds.length));
+                    deletePS.setArray(1, statements.getConnection().createArrayOf("BIGINT", chunk));
+                    SqlExecutionEvent execution = executionEvent(CrudOperation.DELETE_BY_IDS);
+                    int chunkRows = deletePS.executeUpdate();
+                    execution.finish(chunkRows);
+                    rows += chunkRows;
+                }
+                return rows;
+            });
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
+        for (Long id : distinctIds) {
+            identityMap.remove(entityType, id);
+            secondLevelCache.invalidate(id);
+        }
+        return deleted;
     }
 
+    public long deleteWhere(String predicate, Object... parameters) {
+        return deleteWhere(predicate, Arrays.asList(parameters), DEFAULT_IDS_CHUNK_SIZE);
+    }
 
-    public void delete(T... entities) throws SQLException {
-        String ids = Arrays.stream(entities)
-                .map(T::getId)
-                .map(String::valueOf)
-                .collect(Collectors.joining(","));
-        Statement statement = connection.createStatement();
-        mapForDelete(statement, ids);
-/*        for (var person : entities) {
-//            delete(entities);
-        }*/
+    /**
+     * Purge of rows matching the predicate, at most chunkSize rows per statement, until no more rows match.
+     * The statement is DELETE_WHERE SQL (delete up to the WHERE keyword) followed by the predicate and a row limit,
+     * so repeated purges with the same predicate reuse one cached statement.
+     * Every chunk is a separate repository operation - with a connection pool it's committed on its own,
+     * so locks and undo log stay bounded no matter how many rows are deleted.
+     * Loaded entities of this type are dropped from the identity map and the second level cache.
+     * @param predicate  SQL condition with "?" placeholders, i.e. "DOB < ?". It's SQL, never build it from user input
+     * @param parameters values of the placeholders, in order
+     * @return number of deleted rows
+     */
+    public long deleteWhere(String predicate, List<?> parameters, int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException(STR."Chunk size must be positive, was: \{chunkSize}");
+        }
+        String sql = STR."\{getSql(CrudOperation.DELETE_WHERE)} (\{predicate}) FETCH FIRST ? ROWS ONLY";
+        long deleted = 0;
+        try {
+            int chunkRows;
+            do {
+                chunkRows = measured("deleteWhere", sql, rows -> rows, statements -> {
+                    PreparedStatement deletePS = statements.prepare(sql);
+                    int index = 1;
+                    for (Object parameter : parameters) {
+                        deletePS.setObject(index++, parameter);
+                    }
+                    deletePS.setInt(index, chunkSize);
+                    SqlExecutionEvent execution = SqlExecutionEvent.begin(CrudOperation.DELETE_WHERE.name(), entityType, sql);
+                    int rows = deletePS.executeUpdate();
+                    execution.finish(rows);
+                    return rows;
+                });
+                deleted += chunkRows;
+            } while (chunkRows == chunkSize);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            identityMap.removeAll(entityType);
+            secondLevelCache.invalidateAll();
+        }
+        return deleted;
+    }
+
+    private void updateInBatches(String sql, List<T> entities, PreparedStatement ps) throws SQLException {
+        try {
+            for (int from = 0; from < entities.size(); from += batchSize) {
+                List<T> batch = entities.subList(from, Math.min(from + batchSize, entities.size()));
+                for (T entity : batch) {
+                    mapForUpdate(entity, ps);
+                    ps.addBatch();
+                }
+                SqlExecutionEvent execution = SqlExecutionEvent.begin(CrudOperation.UPDATE.name(), entityType, sql);
+                int[] counts = ps.executeBatch();
+                execution.finish(batch.size());
+                if (isVersioned()) {
+                    for (int i = 0; i < counts.length; i++) {
+                        if (counts[i] == 0) {
+                            throw optimisticLockFailure(batch.get(i));
+                        }
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            // statement is cached, it must not keep rows of failed batch
+            ps.clearBatch();
+            throw e;
+        }
+    }
+
+    private void executeBatch(CrudOperation operation, PreparedStatement ps, int rows) throws SQLException {
+        SqlExecutionEvent execution = executionEvent(operation);
+        ps.executeBatch();
+        execution.finish(rows);
+    }
+
+    private SqlExecutionEvent executionEvent(CrudOperation operation) {
+        return SqlExecutionEvent.begin(operation.name(), entityType, getSql(operation));
+    }
+
+    /**
+     * Runs a cascade hook within a CascadeSaveEvent.
+     * @param rows number of entities the hook is run for
+     */
+    protected void cascade(String hook, int rows, Runnable cascade) {
+        CascadeSaveEvent event = CascadeSaveEvent.begin(hook, entityType);
+        cascade.run();
+        event.finish(rows);
+    }
+
+    public void delete(T entity) {
+        try {
+            measured("delete", getSql(CrudOperation.DELETE), deleted -> deleted, statements -> {
+                PreparedStatement deletePS = statements.prepare(getSql(CrudOperation.DELETE));
+                // binds Entity.getId(), entities with @Id on another field must keep getId() in sync with it
+                deletePS.setLong(1, entity.getId());
+                SqlExecutionEvent execution = executionEvent(CrudOperation.DELETE);
+                int deleted = deletePS.executeUpdate();
+                execution.finish(deleted);
+                return deleted;
+            });
+            identityMap.remove(entityType, entity.getId());
+            secondLevelCache.invalidate(entity.getId());
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Bulk delete of given entities, see deleteAllById().
+     * @return number of deleted rows
+     */
+    @SafeVarargs
+    public final int delete(T... entities) {
+        return deleteAll(Arrays.asList(entities));
     }
 
     /**
@@ -122,25 +986,151 @@ public abstract class CrudRepository<T extends Entity> {
      */
     abstract T mapForFind(ResultSet rs) throws SQLException;
 
-    abstract void mapForDelete(Statement statement, String ids) throws SQLException;
+    /**
+     * Mapper of all rows of rs, made once before the rows are read, so per result set work
+     * (i.e. resolving column indexes) is not repeated for every row. Maps with mapForFind() unless overridden.
+     */
+    RowMapper<T> rowMapper(ResultSet rs) throws SQLException {
+        return this::mapForFind;
+    }
 
     abstract void mapForUpdate(T entity, PreparedStatement ps) throws SQLException;
 
+    /**
+     * SQL update() and updateAll() write the entity with, bound by mapForUpdate().
+     * Repositories tracking changes of their entities return SQL of the changed columns only, null when nothing changed.
+     */
+    String updateSql(T entity) {
+        return getSql(CrudOperation.UPDATE);
+    }
+
+    /**
+     * True when UPDATE SQL checks the version of the entity, so no updated row means a conflicting update.
+     */
+    boolean isVersioned() {
+        return false;
+    }
+
     abstract void mapForSave(T entity, PreparedStatement ps) throws SQLException;
 
+    /**
+     * Copy of the entity for the second level cache, so cached state is never shared with callers.
+     * Records are returned as they are, other entities are copied by repositories which override this.
+     * @return null if the entity can't be copied, it's not cached then
+     */
+    T detach(T entity) {
+        return entity instanceof Record ? entity : null;
+    }
+
+    /**
+     * Tells if the entity as read can be shared through the second level cache with other repositories.
+     */
+    boolean isCacheable(T entity) {
+        return true;
+    }
+
+    /**
+     * Binds UPSERT SQL: parameters of SAVE SQL and the id as the last one.
+     */
+    void mapForUpsert(T entity, PreparedStatement ps) throws SQLException {
+        mapForSave(entity, ps);
+        int idIndex = upsertIdIndex;
+        if (idIndex == 0) {
+            // UPSERT SQL of the repository doesn't change, so parameter metadata is read once
+            idIndex = ps.getParameterMetaData().getParameterCount();
+            upsertIdIndex = idIndex;
+        }
+        ps.setLong(idIndex, entity.getId());
+    }
+
+    /**
+     * Value of the natural key column of UPSERT_BY_KEY and FIND_EXISTING_KEYS SQL.
+     */
+    protected String naturalKey(T entity) {
+        throw new UnsupportedOperationException(STR."\{getClass().getSimpleName()} has no natural key");
+    }
+
     protected void postSave(T entity) {
     }
 
-    private String getSQLFromAnnotation(CrudOperation operationType) {
+    /**
+     * Called before a batch is bound to the SAVE statement, i.e. to save referenced entities in batch.
+     * @param batchSize batch size of the saveAll() call, cascaded saveAll() calls should use it too
+     */
+    protected void preSaveAll(List<T> entities, int batchSize) {
+    }
+
+    protected void postSaveAll(List<T> entities, int batchSize) {
+        entities.forEach(this::postSave);
+    }
+
+    /**
+     * Called after the row of the entity was written by update, updateAll or an upsert.
+     */
+    protected void postUpdate(T entity) {
+    }
+
+    private record RepositoryMetadata(Class<?> entityType, Map<CrudOperation, String> sql) {
+    }
+
+    private static final Map<Class<?>, RepositoryCatalog> CATALOGS = loadCatalogs();
+
+    /**
+     * Metadata is resolved once per repository class: from the catalog generated by RepositoryProcessor
+     * or, for repositories built without it, with reflection.
+     */
+    private static final ClassValue<RepositoryMetadata> METADATA = new ClassValue<>() {
+        @Override
+        protected RepositoryMetadata computeValue(Class<?> type) {
+            Map<CrudOperation, String> sql = new EnumMap<>(CrudOperation.class);
+            for (CrudOperation operation : CrudOperation.values()) {
+                sql.put(operation, "");
+            }
+            RepositoryCatalog catalog = CATALOGS.get(type);
+            if (catalog != null) {
+                sql.putAll(catalog.sql());
+                return new RepositoryMetadata(catalog.entityType(), Collections.unmodifiableMap(sql));
+            }
+            for (CrudOperation operation : CrudOperation.values()) {
+                sql.put(operation, getSQLFromAnnotation(type, operation));
+            }
+            return new RepositoryMetadata(resolveEntityType(type), Collections.unmodifiableMap(sql));
+        }
+    };
+
+    private static Map<Class<?>, RepositoryCatalog> loadCatalogs() {
+        Map<Class<?>, RepositoryCatalog> catalogs = new HashMap<>();
+        for (RepositoryCatalog catalog : ServiceLoader.load(RepositoryCatalog.class, CrudRepository.class.getClassLoader())) {
+            catalogs.put(catalog.repositoryType(), catalog);
+        }
+        return catalogs;
+    }
+
+    /**
+     * @return null for generic repositories, i.e. MappedRepository
+     */
+    private static Class<?> resolveEntityType(Class<?> type) {
+        while (type.getSuperclass() != CrudRepository.class) {
+            type = type.getSuperclass();
+        }
+        ParameterizedType crudRepository = (ParameterizedType) type.getGenericSuperclass();
+        return crudRepository.getActualTypeArguments()[0] instanceof Class<?> entityType ? entityType : null;
+    }
+
+    protected String getSql(CrudOperation operationType) {
+        return sqlByOperation.get(operationType);
+    }
+
+    private static String getSQLFromAnnotation(Class<?> repositoryType, CrudOperation operationType) {
 
         //for method with 2 or more Annotations @SQL
-        Stream<SQL> multiSqlStream = Arrays.stream(this.getClass().getDeclaredMethods())
+        Stream<SQL> multiSqlStream = Arrays.stream(repositoryType.getDeclaredMethods())
                 .filter(method -> method.isAnnotationPresent(MultiSQL.class))
                 .map(method -> method.getAnnotation(MultiSQL.class))
                 .flatMap(multiSQL -> Arrays.stream(multiSQL.value()));
 
         //for method with only one Annotation @SQL
-        Stream<SQL> sqlStream = Arrays.stream(this.getClass().getDeclaredMethods())
+        Stream<SQL> sqlStream = Arrays.stream(repositoryType.getDeclaredMethods())
                 .filter(method -> method.isAnnotationPresent(SQL.class))
                 .map(method -> method.getAnnotation(SQL.class));
 
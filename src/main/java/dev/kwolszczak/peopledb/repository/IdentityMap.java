@@ -0,0 +1,81 @@
+package dev.kwolszczak.peopledb.repository;
+
+import dev.kwolszczak.peopledb.model.Entity;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * First level cache: at most one loaded instance per entity type and id within a unit of work.
+ * Not thread safe, it lives as long as the transaction of one connection.
+ */
+public class IdentityMap {
+
+    private static final IdentityMap DISABLED = new IdentityMap() {
+        @Override
+        public <T extends Entity> T get(Class<T> type, Long id) {
+            return null;
+        }
+
+        @Override
+        public <T extends Entity> T putIfAbsent(Class<T> type, T entity) {
+            return entity;
+        }
+
+        @Override
+        public <T extends Entity> void put(Class<T> type, T entity) {
+        }
+    };
+
+    private final Map<Class<?>, Map<Long, Entity>> entitiesByType = new HashMap<>();
+
+    /**
+     * @return identity map which never keeps anything, used by repositories created without a unit of work
+     */
+    public static IdentityMap disabled() {
+        return DISABLED;
+    }
+
+    public <T extends Entity> T get(Class<T> type, Long id) {
+        Map<Long, Entity> entities = entitiesByType.get(type);
+        return entities == null || id == null ? null : type.cast(entities.get(id));
+    }
+
+    /**
+     * @return already mapped instance with the same id, or given entity if there was none
+     */
+    public <T extends Entity> T putIfAbsent(Class<T> type, T entity) {
+        T mapped = get(type, entity.getId());
+        if (mapped != null) {
+            return mapped;
+        }
+        put(type, entity);
+        return entity;
+    }
+
+    public <T extends Entity> void put(Class<T> type, T entity) {
+        if (entity.getId() == null) {
+            return;
+        }
+        entitiesByType.computeIfAbsent(type, t -> new HashMap<>()).put(entity.getId(), entity);
+    }
+
+    public void remove(Class<?> type, Long id) {
+        Map<Long, Entity> entities = entitiesByType.get(type);
+        if (entities != null) {
+            entities.remove(id);
+        }
+    }
+
+    public void removeAll(Class<?> type) {
+        entitiesByType.remove(type);
+    }
+
+    public int size() {
+        return entitiesByType.values().stream().mapToInt(Map::size).sum();
+    }
+
+    public void clear() {
+        entitiesByType.clear();
+    }
+}
@@ -0,0 +1,142 @@
+package dev.kwolszczak.peopledb.repository;
+
+import dev.kwolszczak.peopledb.jdbc.ConnectionPool;
+import dev.kwolszczak.peopledb.jdbc.ConnectionProvider;
+import dev.kwolszczak.peopledb.jdbc.StatementCache;
+import dev.kwolszczak.peopledb.metadata.ColumnMetadata;
+import dev.kwolszczak.peopledb.metadata.EntityMetadata;
+import dev.kwolszczak.peopledb.model.CrudOperation;
+import dev.kwolszczak.peopledb.model.Entity;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Repository of an entity mapped with @Table, @Id and @Column - SQL, binding and mapping come from its
+ * EntityMetadata, so no mapForX has to be written. Subclasses can still override SQL of an operation with @SQL.
+ * Only the columns of the entity table are mapped, relations (like addresses of Person) are left out,
+ * see PeopleRepository for joins and cascades.
+ * <p>
+ * Entity with a @Version field is saved with its version, every update checks and increments it.
+ * Versioned entities have no UPSERT SQL - MERGE would overwrite rows regardless of their version.
+ */
+public class MappedRepository<T extends Entity> extends CrudRepository<T> {
+
+    private final EntityMetadata<T> metadata;
+    private final Map<CrudOperation, String> mappedSql;
+
+    public MappedRepository(Class<T> entityType, Connection connection) {
+        this(entityType, new StatementCache(connection));
+    }
+
+    public MappedRepository(Class<T> entityType, StatementCache statements) {
+        this(entityType, statements, IdentityMap.disabled());
+    }
+
+    public MappedRepository(Class<T> entityType, DataSource dataSource) {
+        this(entityType, ConnectionPool.of(dataSource), IdentityMap.disabled());
+    }
+
+    public MappedRepository(Class<T> entityType, UnitOfWork unitOfWork) {
+        this(entityType, unitOfWork.getStatements(), unitOfWork.getIdentityMap());
+    }
+
+    MappedRepository(Class<T> entityType, ConnectionProvider connections, IdentityMap identityMap) {
+        super(connections, identityMap, entityType);
+        this.metadata = EntityMetadata.of(entityType);
+        this.mappedSql = mappedSql(metadata);
+    }
+
+    private static Map<CrudOperation, String> mappedSql(EntityMetadata<?> metadata) {
+        String table = metadata.getTable();
+        String id = metadata.getId().getName();
+        ColumnMetadata version = metadata.getVersion();
+        String columns = metadata.getColumns().stream().map(ColumnMetadata::getName).collect(Collectors.joining(", "));
+        String parameters = metadata.getColumns().stream().map(column -> "?").collect(Collectors.joining(", "));
+        String assignments = metadata.getColumns().stream().map(column -> column.getName() + " = ?").collect(Collectors.joining(", "));
+        // version is the last column, after the mapped ones
+        String savedColumns = version == null ? columns : STR."\{columns}, \{version.getName()}";
+        String savedParameters = version == null ? parameters : parameters + ", ?";
+        String update = version == null
+                ? STR."UPDATE \{table} SET \{assignments} WHERE \{id} = ?"
+                : STR."UPDATE \{table} SET \{assignments}, \{version.getName()} = \{version.getName()} + 1 WHERE \{id} = ? AND \{version.getName()} = ?";
+        String select = STR."SELECT \{id}, \{savedColumns} FROM \{table}";
+
+        Map<CrudOperation, String> sql = new EnumMap<>(CrudOperation.class);
+        sql.put(CrudOperation.SAVE, STR."INSERT INTO \{table} (\{savedColumns}) VALUES (\{savedParameters})");
+        sql.put(CrudOperation.UPDATE, update);
+        sql.put(CrudOperation.FIND_BY_ID, STR."\{select} WHERE \{id} = ?");
+        sql.put(CrudOperation.FIND_BY_IDS, STR."\{select} WHERE \{id} = ANY(?)");
+        sql.put(CrudOperation.FIND_ALL, select);
+        sql.put(CrudOperation.FIND_PAGE, STR."\{select} WHERE \{id} > ? ORDER BY \{id} FETCH FIRST ? ROWS ONLY");
+        sql.put(CrudOperation.DELETE, STR."DELETE FROM \{table} WHERE \{id} = ?");
+        sql.put(CrudOperation.DELETE_BY_IDS, STR."DELETE FROM \{table} WHERE \{id} = ANY(?)");
+        sql.put(CrudOperation.DELETE_WHERE, STR."DELETE FROM \{table} WHERE");
+        if (version == null) {
+            sql.put(CrudOperation.UPSERT, STR."MERGE INTO \{table} (\{columns}, \{id}) KEY(\{id}) VALUES (\{parameters}, ?)");
+        }
+        sql.put(CrudOperation.FIND_EXISTING_IDS, STR."SELECT \{id} FROM \{table} WHERE \{id} = ANY(?)");
+        return sql;
+    }
+
+    @Override
+    protected String getSql(CrudOperation operationType) {
+        String annotated = super.getSql(operationType);
+        return annotated == null || annotated.isEmpty() ? mappedSql.getOrDefault(operationType, "") : annotated;
+    }
+
+    public EntityMetadata<T> getMetadata() {
+        return metadata;
+    }
+
+    @Override
+    void mapForSave(T entity, PreparedStatement ps) throws SQLException {
+        int versionIndex = metadata.bindColumns(entity, ps, 1);
+        if (metadata.getVersion() != null) {
+            metadata.getVersion().bind(ps, versionIndex, entity);
+        }
+    }
+
+    @Override
+    void mapForUpdate(T entity, PreparedStatement ps) throws SQLException {
+        int idIndex = metadata.bindColumns(entity, ps, 1);
+        metadata.getId().bind(ps, idIndex, entity);
+        if (metadata.getVersion() != null) {
+            metadata.getVersion().bind(ps, idIndex + 1, entity);
+        }
+    }
+
+    @Override
+    T detach(T entity) {
+        return metadata.copy(entity);
+    }
+
+    @Override
+    boolean isVersioned() {
+        return metadata.getVersion() != null;
+    }
+
+    @Override
+    protected void postUpdate(T entity) {
+        if (metadata.getVersion() != null) {
+            metadata.getVersion().increment(entity);
+        }
+    }
+
+    @Override
+    void mapForUpsert(T entity, PreparedStatement ps) throws SQLException {
+        // UPSERT SQL lists the id after the columns, like UPDATE SQL
+        mapForUpdate(entity, ps);
+    }
+
+    @Override
+    T mapForFind(ResultSet rs) throws SQLException {
+        return metadata.read(rs, 1);
+    }
+}
@@ -1,43 +1,162 @@
 package dev.kwolszczak.peopledb.repository;
 
 import dev.kwolszczak.peopledb.annotation.SQL;
+import dev.kwolszczak.peopledb.jdbc.ConnectionPool;
+import dev.kwolszczak.peopledb.jdbc.ConnectionProvider;
+import dev.kwolszczak.peopledb.jdbc.StatementCache;
+import dev.kwolszczak.peopledb.jfr.RowMappingEvent;
+import dev.kwolszczak.peopledb.jfr.SqlExecutionEvent;
 import dev.kwolszczak.peopledb.model.Address;
 import dev.kwolszczak.peopledb.model.CrudOperation;
 import dev.kwolszczak.peopledb.model.Person;
-import dev.kwolszczak.peopledb.model.Region;
+import dev.kwolszczak.peopledb.model.SalaryStats;
 
+import javax.sql.DataSource;
+import java.math.BigDecimal;
 import java.sql.*;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Optional;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 public class PeopleRepository extends CrudRepository<Person> {
     private static final String FIND_PERSON_SQL = "SELECT ID, FIRST_NAME, LAST_NAME, DOB, HOME_ADDRESS FROM PEOPLE WHERE ID = ?";
     private static final String DELETE_PERSON_SQL = "DELETE FROM PEOPLE WHERE ID = ?";
-    private static final String UPDATE_PERSON_SQL = "UPDATE PEOPLE SET FIRST_NAME=?, LAST_NAME=? WHERE ID =?";
+    private static final String DELETE_PEOPLE_SQL = "DELETE FROM PEOPLE WHERE ID = ANY(?)";
+    private static final String DELETE_PEOPLE_WHERE_SQL = "DELETE FROM PEOPLE WHERE";
+    // all Person.Field columns in their order, partial updates are built from the same columns
+    private static final String UPDATE_PERSON_SQL = "UPDATE PEOPLE SET FIRST_NAME = ?, LAST_NAME = ?, DOB = ?, SALARY = ?, EMAIL = ?, HOME_ADDRESS = ?, BUSINESS_ADDRESS = ? WHERE ID = ?";
+    private static final Set<Person.Field> ALL_FIELDS = Collections.unmodifiableSet(EnumSet.allOf(Person.Field.class));
     private static final String SAVE_PERSON_SQL = """
             INSERT INTO PEOPLE 
             (FIRST_NAME, LAST_NAME, DOB, SALARY, EMAIL, HOME_ADDRESS, BUSINESS_ADDRESS, PARENT_ID) 
             VALUES (?, ?, ?, ?, ?, ?, ?, ?)
             """;
-    private static final String FIND_BY_ID_SQL = """
-            SELECT
-            P.ID AS P_ID, P.FIRST_NAME AS P_FIRST_NAME, P.LAST_NAME AS P_LAST_NAME, P.DOB AS P_DOB, P.SALARY AS P_SALARY, P.EMAIL AS P_EMAIL, P.HOME_ADDRESS AS P_HOME_ADDRESS, P.BUSINESS_ADDRESS AS P_BUSINESS_ADDRESS,
+    // MERGE writes the same columns as SAVE, by id or by EMAIL as the natural key
+    private static final String UPSERT_PERSON_SQL = """
+            MERGE INTO PEOPLE
+            (FIRST_NAME, LAST_NAME, DOB, SALARY, EMAIL, HOME_ADDRESS, BUSINESS_ADDRESS, PARENT_ID, ID) KEY(ID)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)
+            """;
+    private static final String UPSERT_PERSON_BY_EMAIL_SQL = """
+            MERGE INTO PEOPLE
+            (FIRST_NAME, LAST_NAME, DOB, SALARY, EMAIL, HOME_ADDRESS, BUSINESS_ADDRESS, PARENT_ID) KEY(EMAIL)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?)
+            """;
+    private static final String FIND_EXISTING_IDS_SQL = "SELECT ID FROM PEOPLE WHERE ID = ANY(?)";
+    private static final String FIND_EXISTING_EMAILS_SQL = "SELECT EMAIL FROM PEOPLE WHERE EMAIL = ANY(?)";
+    private static final String PERSON_COLUMNS = """
+            P.ID AS P_ID, P.FIRST_NAME AS P_FIRST_NAME, P.LAST_NAME AS P_LAST_NAME, P.DOB AS P_DOB, P.SALARY AS P_SALARY, P.EMAIL AS P_EMAIL, P.HOME_ADDRESS AS P_HOME_ADDRESS, P.BUSINESS_ADDRESS AS P_BUSINESS_ADDRESS""";
+    private static final String PERSON_WITH_ADDRESSES_COLUMNS = PERSON_COLUMNS + ",\n" + """
             HOME.ID AS HOME_ID,HOME.STREET_ADDRESS AS HOME_STREET_ADDRESS,HOME.ADDRESS2 AS HOME_ADDRESS2, HOME.CITY AS HOME_CITY, HOME.STATE AS HOME_STATE, HOME.POSTCODE AS HOME_POSTCODE, HOME.COUNTY AS HOME_COUNTY, HOME.REGION AS HOME_REGION, HOME.COUNTRY AS HOME_COUNTRY,
-            BIZ.ID AS BIZ_ID,BIZ.STREET_ADDRESS AS BIZ_STREET_ADDRESS,BIZ.ADDRESS2 AS BIZ_ADDRESS2, BIZ.CITY AS BIZ_CITY, BIZ.STATE AS BIZ_STATE, BIZ.POSTCODE AS BIZ_POSTCODE, BIZ.COUNTY AS BIZ_COUNTY, BIZ.REGION AS BIZ_REGION, BIZ.COUNTRY AS BIZ_COUNTRY           
-            FROM PEOPLE AS P
+            BIZ.ID AS BIZ_ID,BIZ.STREET_ADDRESS AS BIZ_STREET_ADDRESS,BIZ.ADDRESS2 AS BIZ_ADDRESS2, BIZ.CITY AS BIZ_CITY, BIZ.STATE AS BIZ_STATE, BIZ.POSTCODE AS BIZ_POSTCODE, BIZ.COUNTY AS BIZ_COUNTY, BIZ.REGION AS BIZ_REGION, BIZ.COUNTRY AS BIZ_COUNTRY
+            """;
+    private static final String ADDRESSES_JOIN_SQL = """
             LEFT OUTER JOIN ADDRESS AS HOME ON P.HOME_ADDRESS =HOME.ID
             LEFT OUTER JOIN ADDRESS AS BIZ ON P.BUSINESS_ADDRESS =BIZ.ID
-            WHERE P.ID = ? """;
+            """;
+    private static final String SELECT_PERSON_WITH_ADDRESSES_SQL = "SELECT\n" + PERSON_WITH_ADDRESSES_COLUMNS + "FROM PEOPLE AS P\n" + ADDRESSES_JOIN_SQL;
+    private static final String FIND_BY_ID_SQL = SELECT_PERSON_WITH_ADDRESSES_SQL + "WHERE P.ID = ?";
+    private static final String FIND_BY_IDS_SQL = SELECT_PERSON_WITH_ADDRESSES_SQL + "WHERE P.ID = ANY(?)";
+    private static final String FIND_ALL_SQL = SELECT_PERSON_WITH_ADDRESSES_SQL;
+    private static final String FIND_PAGE_SQL = SELECT_PERSON_WITH_ADDRESSES_SQL + "WHERE P.ID > ? ORDER BY P.ID FETCH FIRST ? ROWS ONLY";
+    private static final String FIND_IN_ID_RANGE_SQL = SELECT_PERSON_WITH_ADDRESSES_SQL + "WHERE P.ID BETWEEN ? AND ? ORDER BY P.ID";
+    private static final String FIND_ID_RANGE_SQL = "SELECT MIN(ID), MAX(ID) FROM PEOPLE";
+    // without the address join, addresses are loaded lazily
+    private static final String SELECT_PERSON_SQL = "SELECT\n" + PERSON_COLUMNS + "\nFROM PEOPLE AS P\n";
+    private static final Map<CrudOperation, String> LAZY_FIND_SQL = new EnumMap<>(Map.of(
+            CrudOperation.FIND_BY_ID, SELECT_PERSON_SQL + "WHERE P.ID = ?",
+            CrudOperation.FIND_BY_IDS, SELECT_PERSON_SQL + "WHERE P.ID = ANY(?)",
+            CrudOperation.FIND_ALL, SELECT_PERSON_SQL,
+            CrudOperation.FIND_PAGE, SELECT_PERSON_SQL + "WHERE P.ID > ? ORDER BY P.ID FETCH FIRST ? ROWS ONLY"));
+    // columns which can be read into a projection record
+    private static final Set<String> PROJECTION_COLUMNS = Set.of(
+            "ID", "FIRST_NAME", "LAST_NAME", "DOB", "SALARY", "EMAIL", "HOME_ADDRESS", "BUSINESS_ADDRESS", "PARENT_ID");
+    // TREE walks PARENT_ID from the person with given id, rows come ordered by their distance from that person
+    private static final String SELECT_TREE_WITH_ADDRESSES_SQL = "SELECT\n" + PERSON_WITH_ADDRESSES_COLUMNS + """
+            , TREE.PARENT_ID AS T_PARENT_ID
+            FROM TREE
+            JOIN PEOPLE AS P ON P.ID = TREE.ID
+            """ + ADDRESSES_JOIN_SQL + "ORDER BY TREE.DEPTH";
+    private static final String FIND_WITH_DESCENDANTS_SQL = """
+            WITH RECURSIVE TREE(ID, PARENT_ID, DEPTH) AS (
+            SELECT ID, PARENT_ID, 0 FROM PEOPLE WHERE ID = ?
+            UNION ALL
+            SELECT CHILD.ID, CHILD.PARENT_ID, TREE.DEPTH + 1 FROM PEOPLE AS CHILD JOIN TREE ON CHILD.PARENT_ID = TREE.ID WHERE TREE.DEPTH < ?
+            )
+            """ + SELECT_TREE_WITH_ADDRESSES_SQL;
+    private static final String FIND_ANCESTORS_SQL = """
+            WITH RECURSIVE TREE(ID, PARENT_ID, DEPTH) AS (
+            SELECT ID, PARENT_ID, 0 FROM PEOPLE WHERE ID = ?
+            UNION ALL
+            SELECT PARENT.ID, PARENT.PARENT_ID, TREE.DEPTH + 1 FROM PEOPLE AS PARENT JOIN TREE ON PARENT.ID = TREE.PARENT_ID WHERE TREE.DEPTH < ?
+            )
+            """ + SELECT_TREE_WITH_ADDRESSES_SQL;
+    // guards ancestors query against PARENT_ID cycles
+    private static final int MAX_ANCESTORS = 10_000;
+
+    private static final ZoneId UTC = ZoneId.of("+0");
+
+    /**
+     * How find methods load addresses of people.
+     * JOIN - with the people, in the same query.
+     * LAZY - with AddressRepository on first getHomeAddress()/getBusinessAddress() of a person, one query per address.
+     * LAZY_BATCH - like LAZY, but first access loads addresses of all people read since the last batch
+     * (up to DEFAULT_IDS_CHUNK_SIZE of them) with one findAllById query.
+     */
+    public enum AddressFetch {
+        JOIN, LAZY, LAZY_BATCH
+    }
+
+    /**
+     * Groups of salaryStats(), by home address or year of birth.
+     */
+    public enum SalaryGroup {
+        REGION("HOME.REGION"),
+        STATE("HOME.STATE"),
+        CITY("HOME.CITY"),
+        DOB_YEAR("CAST(EXTRACT(YEAR FROM P.DOB) AS VARCHAR)");
 
-    private AddressRepository addressRepository;
-    private Map<String, Integer> aliasColIdxMap = new HashMap<>();
+        private final String expression;
+
+        SalaryGroup(String expression) {
+            this.expression = expression;
+        }
+    }
+
+    public record IdRange(long min, long max) {
+    }
+
+    private static final Map<Class<?>, RecordProjection<?>> projections = new ConcurrentHashMap<>();
+    private static final Map<Set<Person.Field>, String> partialUpdates = new ConcurrentHashMap<>();
+
+    private final AddressRepository addressRepository;
+    private volatile AddressFetch addressFetch = AddressFetch.JOIN;
+    private AddressBatchLoader addressBatch;
+    private final ColumnPlans<PersonColumns> columnPlans = new ColumnPlans<>(PersonColumns::resolve);
+    private final ColumnPlans<TreeColumns> treeColumnPlans = new ColumnPlans<>(TreeColumns::resolve);
 
     public PeopleRepository(Connection con) {
-        super(con);
-        addressRepository = new AddressRepository(con);
+        this(new StatementCache(con));
+    }
+
+    public PeopleRepository(StatementCache statements) {
+        this(statements, IdentityMap.disabled());
+    }
+
+    public PeopleRepository(UnitOfWork unitOfWork) {
+        this(unitOfWork.getStatements(), unitOfWork.getIdentityMap());
+    }
+
+    public PeopleRepository(DataSource dataSource) {
+        this(ConnectionPool.of(dataSource), IdentityMap.disabled());
+    }
+
+    private PeopleRepository(ConnectionProvider connections, IdentityMap identityMap) {
+        super(connections, identityMap);
+        addressRepository = new AddressRepository(connections, identityMap);
     }
 
     @Override
@@ -46,7 +165,7 @@ public class PeopleRepository extends CrudRepository<Person> {
 
         ps.setString(1, entity.getFirstName());
         ps.setString(2, entity.getLastName());
-        ps.setTimestamp(3, Timestamp.valueOf(entity.getDob().withZoneSameInstant(ZoneId.of("+0")).toLocalDateTime()));
+        bindDob(entity.getDob(), ps, 3);
         ps.setBigDecimal(4, entity.getSalary());
         ps.setString(5, entity.getEmail());
 
@@ -55,12 +174,60 @@ public class PeopleRepository extends CrudRepository<Person> {
         linkChildWithParent(entity, ps);
     }
 
+    @Override
+    @SQL(value = UPSERT_PERSON_SQL, operationType = CrudOperation.UPSERT)
+    @SQL(value = FIND_EXISTING_IDS_SQL, operationType = CrudOperation.FIND_EXISTING_IDS)
+    void mapForUpsert(Person entity, PreparedStatement ps) throws SQLException {
+        mapForSave(entity, ps);
+        ps.setLong(9, entity.getId());
+    }
+
+    @Override
+    @SQL(value = UPSERT_PERSON_BY_EMAIL_SQL, operationType = CrudOperation.UPSERT_BY_KEY)
+    @SQL(value = FIND_EXISTING_EMAILS_SQL, operationType = CrudOperation.FIND_EXISTING_KEYS)
+    protected String naturalKey(Person entity) {
+        return entity.getEmail();
+    }
+
     @Override
     protected void postSave(Person entity) {
+        entity.markClean();
         entity.getChildren().stream()
                 .forEach(this::save);
     }
 
+    @Override
+    protected void preSaveAll(List<Person> entities, int batchSize) {
+        // identity set - the same address instance can be used as home and business address
+        Set<Address> addresses = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Person person : entities) {
+            person.getHomeAddress().filter(address -> address.id() == null).ifPresent(addresses::add);
+            person.getBusinessAddress().filter(address -> address.id() == null).ifPresent(addresses::add);
+        }
+        if (!addresses.isEmpty()) {
+            addressRepository.saveAll(new ArrayList<>(addresses), batchSize);
+        }
+    }
+
+    @Override
+    protected void postSaveAll(List<Person> entities, int batchSize) {
+        entities.forEach(Person::markClean);
+        List<Person> children = entities.stream()
+                .flatMap(person -> person.getChildren().stream())
+                .toList();
+        if (!children.isEmpty()) {
+            saveAll(children, batchSize);
+        }
+    }
+
+    private static void bindDob(ZonedDateTime dob, PreparedStatement ps, int parameterIndex) throws SQLException {
+        if (dob == null) {
+            ps.setNull(parameterIndex, Types.TIMESTAMP);
+        } else {
+            ps.setTimestamp(parameterIndex, Timestamp.valueOf(dob.withZoneSameInstant(UTC).toLocalDateTime()));
+        }
+    }
+
     private static void linkChildWithParent(Person entity, PreparedStatement ps) throws SQLException {
         Optional<Person> parent = entity.getParent();
         if (parent.isPresent()) {
@@ -73,7 +240,11 @@ public class PeopleRepository extends CrudRepository<Person> {
     private void linkAddressWithPerson(Optional<Address> address, PreparedStatement ps, int parameterIndex) throws SQLException {
         Address savedAddress;
         if (address.isPresent()) {
-            savedAddress = addressRepository.save(address.get());
+            // address could be already saved in batch by preSaveAll
+            savedAddress = address.get();
+            if (savedAddress.id() == null) {
+                cascade("linkAddressWithPerson", 1, () -> addressRepository.save(address.get()));
+            }
             ps.setLong(parameterIndex, savedAddress.id());
         } else {
             ps.setObject(parameterIndex, null);
@@ -83,87 +254,387 @@ public class PeopleRepository extends CrudRepository<Person> {
     @Override
     @SQL(value = UPDATE_PERSON_SQL, operationType = CrudOperation.UPDATE)
     void mapForUpdate(Person entity, PreparedStatement ps) throws SQLException {
-        ps.setString(1, entity.getFirstName());
-        ps.setString(2, entity.getLastName());
-        ps.setLong(3, entity.getId());
+        int index = 1;
+        for (Person.Field field : updatedFields(entity)) {
+            switch (field) {
+                case FIRST_NAME -> ps.setString(index, entity.getFirstName());
+                case LAST_NAME -> ps.setString(index, entity.getLastName());
+                case DOB -> bindDob(entity.getDob(), ps, index);
+                case SALARY -> ps.setBigDecimal(index, entity.getSalary());
+                case EMAIL -> ps.setString(index, entity.getEmail());
+                case HOME_ADDRESS -> linkAddressWithPerson(entity.getHomeAddress(), ps, index);
+                case BUSINESS_ADDRESS -> linkAddressWithPerson(entity.getBusinessAddress(), ps, index);
+            }
+            index++;
+        }
+        ps.setLong(index, entity.getId());
+    }
+
+    /**
+     * Tracked person is updated with its changed columns only, one cached statement per set of columns.
+     * Person without changes is not written at all.
+     */
+    @Override
+    String updateSql(Person entity) {
+        Set<Person.Field> fields = updatedFields(entity);
+        if (fields.isEmpty()) {
+            return null;
+        }
+        if (fields.size() == ALL_FIELDS.size()) {
+            return getSql(CrudOperation.UPDATE);
+        }
+        String sql = partialUpdates.get(fields);
+        return sql != null ? sql : partialUpdates.computeIfAbsent(EnumSet.copyOf(fields), PeopleRepository::partialUpdateSql);
+    }
+
+    private static Set<Person.Field> updatedFields(Person entity) {
+        return entity.isTracked() ? entity.getDirtyFields() : ALL_FIELDS;
+    }
+
+    private static String partialUpdateSql(Set<Person.Field> fields) {
+        StringJoiner assignments = new StringJoiner(", ", "UPDATE PEOPLE SET ", " WHERE ID = ?");
+        fields.forEach(field -> assignments.add(field.name() + " = ?"));
+        return assignments.toString();
     }
 
     @Override
-    void mapForDelete(Statement statement, String ids) throws SQLException {
-        statement.execute(STR."DELETE FROM PEOPLE WHERE ID IN (\{ids});");
+    Person detach(Person entity) {
+        return entity.copy();
+    }
+
+    @Override
+    boolean isCacheable(Person entity) {
+        // lazy address loaders read with the repository (and unit of work) which found the person
+        return !entity.hasPendingLoads();
+    }
+
+    @Override
+    protected void postUpdate(Person entity) {
+        entity.markClean();
     }
 
     @Override
     @SQL(operationType = CrudOperation.FIND_BY_ID, value = FIND_BY_ID_SQL)
+    @SQL(operationType = CrudOperation.FIND_BY_IDS, value = FIND_BY_IDS_SQL)
+    @SQL(operationType = CrudOperation.FIND_ALL, value = FIND_ALL_SQL)
+    @SQL(operationType = CrudOperation.FIND_PAGE, value = FIND_PAGE_SQL)
     Person mapForFind(ResultSet rs) throws SQLException {
-        Person person = extractPerson(rs, "P_");
+        return mapPerson(rs, columnPlans.forResultSet(rs));
+    }
+
+    @Override
+    RowMapper<Person> rowMapper(ResultSet rs) throws SQLException {
+        PersonColumns columns = columnPlans.forResultSet(rs);
+        return row -> mapPerson(row, columns);
+    }
 
-        Long homeAddressId = getValueByAlias(rs, "P_HOME_ADDRESS");
-        Long businessAddressId = getValueByAlias(rs, "P_BUSINESS_ADDRESS");
+    @Override
+    protected String getSql(CrudOperation operationType) {
+        if (addressFetch != AddressFetch.JOIN && LAZY_FIND_SQL.containsKey(operationType)) {
+            return LAZY_FIND_SQL.get(operationType);
+        }
+        return super.getSql(operationType);
+    }
 
-        if (homeAddressId != null) {
-            Address homeAddress = extractAddress(rs, "HOME_");
-            person.setHomeAddress(homeAddress);
+    private Person mapPerson(ResultSet rs, PersonColumns columns) throws SQLException {
+        Person person = columns.readPerson(rs);
+
+        long homeAddressId = rs.getLong(columns.homeAddress());
+        if (!rs.wasNull()) {
+            if (columns.home() == null) {
+                Address loaded = identityMap.get(Address.class, homeAddressId);
+                if (loaded != null) {
+                    person.setHomeAddress(loaded);
+                } else {
+                    person.setHomeAddressLoader(addressLoader(homeAddressId));
+                }
+            } else {
+                person.setHomeAddress(readAddress(rs, homeAddressId, columns.home()));
+            }
         }
-        if (businessAddressId != null) {
-            Address businessAddress = extractAddress(rs, "BIZ_");
-            person.setBusinessAddress(businessAddress);
+        long businessAddressId = rs.getLong(columns.businessAddress());
+        if (!rs.wasNull()) {
+            if (columns.business() == null) {
+                Address loaded = identityMap.get(Address.class, businessAddressId);
+                if (loaded != null) {
+                    person.setBusinessAddress(loaded);
+                } else {
+                    person.setBusinessAddressLoader(addressLoader(businessAddressId));
+                }
+            } else {
+                person.setBusinessAddress(readAddress(rs, businessAddressId, columns.business()));
+            }
         }
+        person.markClean();
         return person;
     }
 
-    private Person extractPerson(ResultSet rs, String aliasPrefix) throws SQLException {
-        long personId = 0;
-        personId = getValueByAlias(rs, aliasPrefix + "ID");
-        String firstName = getValueByAlias(rs, aliasPrefix + "FIRST_NAME");
-        String lastName = getValueByAlias(rs, aliasPrefix + "LAST_NAME");
-        ZonedDateTime dob = ZonedDateTime.of(rs.getTimestamp(aliasPrefix + "DOB").toLocalDateTime(), ZoneId.of("+0"));
-        Person person = new Person(firstName, lastName, dob);
-        person.setId(personId);
-        return person;
+    private Supplier<Address> addressLoader(Long addressId) {
+        if (addressFetch != AddressFetch.LAZY_BATCH) {
+            return () -> addressRepository.findById(addressId).orElse(null);
+        }
+        AddressBatchLoader batch;
+        synchronized (this) {
+            if (addressBatch == null || !addressBatch.add(addressId)) {
+                addressBatch = new AddressBatchLoader(addressRepository, DEFAULT_IDS_CHUNK_SIZE);
+                addressBatch.add(addressId);
+            }
+            batch = addressBatch;
+        }
+        return () -> batch.get(addressId);
     }
 
-    private Address extractAddress(ResultSet rs, String prefix) throws SQLException {
-        Address address = null;
-        long id = getValueByAlias(rs, prefix + "ID");
-        String streetAddress = getValueByAlias(rs, prefix + "STREET_ADDRESS");
-        String address2 = getValueByAlias(rs, prefix + "ADDRESS2");
-        String city = getValueByAlias(rs, prefix + "CITY");
-        String state = getValueByAlias(rs, prefix + "STATE");
-        String postcode = getValueByAlias(rs, prefix + "POSTCODE");
-        String county = getValueByAlias(rs, prefix + "COUNTY");
-        String region = getValueByAlias(rs, prefix + "REGION");
-        String country = getValueByAlias(rs, prefix + "COUNTRY");
+    public void setAddressFetch(AddressFetch addressFetch) {
+        this.addressFetch = Objects.requireNonNull(addressFetch);
+    }
 
-        address = new Address(streetAddress, address2, city, state, postcode, country, county, Region.valueOf(region.toUpperCase()));
-        address.setId(id);
-        return address;
+    public AddressFetch getAddressFetch() {
+        return addressFetch;
     }
 
-    @Override
-    @SQL(value = DELETE_PERSON_SQL, operationType = CrudOperation.DELETE)
-    public void delete(Person person) {
-        super.delete(person);
+    /**
+     * Reads only the columns of the projection record, i.e. PersonSummary. Components are named after PEOPLE columns
+     * in camel case (firstName is FIRST_NAME). Projections are not kept in identity map nor second level cache.
+     */
+    public <R extends Record> Optional<R> findById(Long id, Class<R> projection) {
+        RecordProjection<R> plan = projection(projection);
+        String sql = STR."SELECT \{plan.columns()} FROM PEOPLE WHERE ID = ?";
+        try {
+            return measured("findProjectionById", sql, found -> found.isPresent() ? 1 : 0, statements -> {
+                PreparedStatement ps = statements.prepare(sql);
+                ps.setLong(1, id);
+                try (ResultSet rs = ps.executeQuery()) {
+                    return rs.next() ? Optional.of(plan.read(rs)) : Optional.empty();
+                }
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Multi-get of projections, see findById(Long, Class) and findAllById(Collection, int).
+     * @return found projections in no particular order, missing ids are skipped
+     */
+    public <R extends Record> List<R> findAllById(Collection<Long> ids, Class<R> projection) {
+        RecordProjection<R> plan = projection(projection);
+        String sql = STR."SELECT \{plan.columns()} FROM PEOPLE WHERE ID = ANY(?)";
+        Long[] distinctIds = ids.stream().filter(Objects::nonNull).distinct().toArray(Long[]::new);
+        if (distinctIds.length == 0) {
+            return List.of();
+        }
+        try {
+            return measured("findProjectionsById", sql, List::size, statements -> {
+                PreparedStatement ps = statements.prepare(sql);
+                List<R> found = new ArrayList<>();
+                for (int from = 0; from < distinctIds.length; from += DEFAULT_IDS_CHUNK_SIZE) {
+                    Long[] chunk = Arrays.copyOfRange(distinctIds, from, Math.min(from + DEFAULT_IDS_CHUNK_SIZE, distinctIds.length));
+                    ps.setArray(1, statements.getConnection().createArrayOf("BIGINT", chunk));
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            found.add(plan.read(rs));
+                        }
+                    }
+                }
+                return found;
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
     }
 
-    private <T> T getValueByAlias(ResultSet rs, String alias) throws SQLException {
-        int columnCount = rs.getMetaData().getColumnCount();
-        int foundIdx = getIndexForAlias(rs, alias, columnCount);
-        return foundIdx == 0 ? null : (T) rs.getObject(foundIdx);
+    /**
+     * Lazy scan of people with ids from fromId to toId (both inclusive), ordered by id, with their addresses
+     * joined whatever the address fetch mode is. Like findAll(), close the stream when done.
+     */
+    public Stream<Person> findAllInIdRange(long fromId, long toId) {
+        return query("findAllInIdRange", FIND_IN_ID_RANGE_SQL, ps -> {
+            ps.setLong(1, fromId);
+            ps.setLong(2, toId);
+        });
     }
 
-    private int getIndexForAlias(ResultSet rs, String alias, int columnCount) throws SQLException {
-        // use mapping to cache values alias-index , to skip for loop
-        int foundIdx = aliasColIdxMap.getOrDefault(alias, 0);
-        if (foundIdx == 0) {
-            for (int colIdx = 1; colIdx <= columnCount; colIdx++) {
-                if (alias.equals(rs.getMetaData().getColumnLabel(colIdx))) {
-                    foundIdx = colIdx;
-                    aliasColIdxMap.put(alias, foundIdx);
-                    break;
+    /**
+     * @return smallest and biggest id of people, empty if there are none
+     */
+    public Optional<IdRange> findIdRange() {
+        try {
+            return measured("findIdRange", FIND_ID_RANGE_SQL, range -> 1, statements -> {
+                try (ResultSet rs = statements.prepare(FIND_ID_RANGE_SQL).executeQuery()) {
+                    rs.next();
+                    long min = rs.getLong(1);
+                    return rs.wasNull() ? Optional.empty() : Optional.of(new IdRange(min, rs.getLong(2)));
                 }
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Salary statistics per group, computed by the database with one GROUP BY query - people are not loaded.
+     * People without a home address (or without DOB for DOB_YEAR) fall into the null group, which comes last.
+     * Only people with a salary are counted into sum, average, min, max and percentiles.
+     * The stream holds its cursor until closed, use it in try-with-resources.
+     * @param percentiles continuous percentiles to compute, between 0 and 1, i.e. 0.5 for median
+     */
+    public Stream<SalaryStats> salaryStats(SalaryGroup groupBy, double... percentiles) {
+        StringBuilder sql = new StringBuilder(STR."""
+                SELECT \{groupBy.expression} AS GROUP_KEY, COUNT(*), SUM(P.SALARY), AVG(P.SALARY), MIN(P.SALARY), MAX(P.SALARY)""");
+        for (double percentile : percentiles) {
+            if (!(percentile >= 0 && percentile <= 1)) {
+                throw new IllegalArgumentException(STR."Percentile must be between 0 and 1, was: \{percentile}");
             }
+            sql.append(STR.", PERCENTILE_CONT(\{BigDecimal.valueOf(percentile).toPlainString()}) WITHIN GROUP (ORDER BY P.SALARY)");
         }
-        return foundIdx;
+        sql.append("""
+
+                FROM PEOPLE AS P
+                LEFT OUTER JOIN ADDRESS AS HOME ON P.HOME_ADDRESS =HOME.ID
+                GROUP BY GROUP_KEY ORDER BY GROUP_KEY NULLS LAST""");
+        return query("salaryStats", sql.toString(), ps -> {
+        }, rs -> {
+            Map<Double, BigDecimal> values = new LinkedHashMap<>();
+            for (int i = 0; i < percentiles.length; i++) {
+                values.put(percentiles[i], rs.getBigDecimal(7 + i));
+            }
+            return new SalaryStats(rs.getString(1), rs.getLong(2), rs.getBigDecimal(3), rs.getBigDecimal(4),
+                    rs.getBigDecimal(5), rs.getBigDecimal(6), values);
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <R extends Record> RecordProjection<R> projection(Class<R> type) {
+        return (RecordProjection<R>) projections.computeIfAbsent(type, t -> new RecordProjection<>(type, PROJECTION_COLUMNS));
+    }
+
+    /**
+     * Loads the person with descendants up to maxDepth generations below, with their addresses, in one recursive query.
+     * Children of every loaded person are linked (addChild) while the rows are read, parents come before children.
+     * Parent of the returned person itself is not loaded, see findAncestors().
+     * @param maxDepth 0 loads just the person, 1 with children, 2 with grandchildren...
+     */
+    public Optional<Person> findWithDescendants(Long id, int maxDepth) {
+        if (maxDepth < 0) {
+            throw new IllegalArgumentException(STR."Max depth can't be negative, was: \{maxDepth}");
+        }
+        List<Person> tree = findTree("findWithDescendants", FIND_WITH_DESCENDANTS_SQL, id, maxDepth, (person, parentId, loaded) -> {
+            Person parent = loaded.get(parentId);
+            if (parent != null) {
+                parent.addChild(person);
+            }
+        });
+        return tree.isEmpty() ? Optional.empty() : Optional.of(tree.getFirst());
+    }
+
+    /**
+     * Loads parent, grandparent... of the person up to the root of the family, with their addresses, in one recursive query.
+     * Every loaded ancestor is linked with the previous one (addChild), so children of an ancestor contain only its child
+     * on the way to the person.
+     * @return ancestors from the parent to the root, empty if there are none or the person doesn't exist
+     */
+    public List<Person> findAncestors(Long id) {
+        Person[] previous = new Person[1];
+        List<Person> line = findTree("findAncestors", FIND_ANCESTORS_SQL, id, MAX_ANCESTORS, (person, parentId, loaded) -> {
+            if (previous[0] != null) {
+                person.addChild(previous[0]);
+            }
+            previous[0] = person;
+        });
+        return line.isEmpty() ? List.of() : line.subList(1, line.size());
+    }
+
+    @FunctionalInterface
+    private interface TreeLinker {
+        void link(Person person, Long parentId, Map<Long, Person> loaded);
+    }
+
+    /**
+     * Reads the rows of a TREE query in one pass, in depth order, linking every person with already loaded ones.
+     */
+    private List<Person> findTree(String operation, String sql, Long id, int maxDepth, TreeLinker linker) {
+        try {
+            return measured(operation, sql, List::size, statements -> {
+                PreparedStatement ps = statements.prepare(sql);
+                ps.setLong(1, id);
+                ps.setInt(2, maxDepth);
+                List<Person> people = new ArrayList<>();
+                Map<Long, Person> loaded = new HashMap<>();
+                SqlExecutionEvent execution = SqlExecutionEvent.begin(operation, Person.class, sql);
+                try (ResultSet rs = ps.executeQuery()) {
+                    execution.end();
+                    RowMappingEvent mapping = RowMappingEvent.begin(operation, Person.class);
+                    TreeColumns columns = treeColumnPlans.forResultSet(rs);
+                    while (rs.next()) {
+                        Person person = identityMap.putIfAbsent(Person.class, mapPerson(rs, columns.person()));
+                        long parentId = rs.getLong(columns.parentId());
+                        linker.link(person, rs.wasNull() ? null : parentId, loaded);
+                        loaded.put(person.getId(), person);
+                        people.add(person);
+                    }
+                    mapping.finish(people.size());
+                }
+                execution.finish(people.size());
+                return people;
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private Address readAddress(ResultSet rs, long addressId, AddressColumns columns) throws SQLException {
+        // address already loaded in this unit of work is not mapped again
+        Address address = identityMap.get(Address.class, addressId);
+        return address != null ? address : identityMap.putIfAbsent(Address.class, columns.read(rs));
+    }
+
+    /**
+     * Indexes of people/address join columns, resolved once per statement.
+     */
+    private record PersonColumns(int id, int firstName, int lastName, int dob, int salary, int email,
+                                 int homeAddress, int businessAddress, AddressColumns home, AddressColumns business) {
+
+        static PersonColumns resolve(ColumnLabels labels) {
+            return new PersonColumns(
+                    labels.require("P_ID"),
+                    labels.require("P_FIRST_NAME"),
+                    labels.require("P_LAST_NAME"),
+                    labels.require("P_DOB"),
+                    labels.require("P_SALARY"),
+                    labels.require("P_EMAIL"),
+                    labels.require("P_HOME_ADDRESS"),
+                    labels.require("P_BUSINESS_ADDRESS"),
+                    // no address columns - addresses are loaded lazily
+                    labels.indexOf("HOME_ID") == 0 ? null : AddressColumns.resolve(labels, "HOME_"),
+                    labels.indexOf("BIZ_ID") == 0 ? null : AddressColumns.resolve(labels, "BIZ_"));
+        }
+
+        Person readPerson(ResultSet rs) throws SQLException {
+            Timestamp dobTimestamp = rs.getTimestamp(dob);
+            ZonedDateTime dob = dobTimestamp == null ? null : ZonedDateTime.of(dobTimestamp.toLocalDateTime(), UTC);
+            Person person = new Person(rs.getString(firstName), rs.getString(lastName), dob);
+            person.setId(rs.getLong(id));
+            BigDecimal salary = rs.getBigDecimal(this.salary);
+            if (salary != null) {
+                person.setSalary(salary);
+            }
+            person.setEmail(rs.getString(email));
+            return person;
+        }
+    }
+
+    private record TreeColumns(PersonColumns person, int parentId) {
+
+        static TreeColumns resolve(ColumnLabels labels) {
+            return new TreeColumns(PersonColumns.resolve(labels), labels.require("T_PARENT_ID"));
+        }
+    }
+
+    @Override
+    @SQL(value = DELETE_PERSON_SQL, operationType = CrudOperation.DELETE)
+    @SQL(value = DELETE_PEOPLE_SQL, operationType = CrudOperation.DELETE_BY_IDS)
+    @SQL(value = DELETE_PEOPLE_WHERE_SQL, operationType = CrudOperation.DELETE_WHERE)
+    public void delete(Person person) {
+        super.delete(person);
     }
 }
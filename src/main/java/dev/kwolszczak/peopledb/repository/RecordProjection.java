@@ -0,0 +1,114 @@
+package dev.kwolszczak.peopledb.repository;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.RecordComponent;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Maps rows to a record which declares the wanted columns: every component is a column, named in camel case
+ * (firstName is FIRST_NAME). Columns are selected in component order, so a row is read by index.
+ */
+final class RecordProjection<R extends Record> {
+
+    private static final ZoneId UTC = ZoneId.of("+0");
+
+    private final Class<R> type;
+    private final Constructor<R> constructor;
+    private final Class<?>[] componentTypes;
+    private final String columns;
+
+    RecordProjection(Class<R> type, Set<String> allowedColumns) {
+        RecordComponent[] components = type.getRecordComponents();
+        if (components == null || components.length == 0) {
+            throw new IllegalArgumentException(STR."Projection must be a record with components: \{type}");
+        }
+        this.type = type;
+        this.componentTypes = Arrays.stream(components).map(RecordComponent::getType).toArray(Class<?>[]::new);
+        this.columns = Arrays.stream(components)
+                .map(component -> {
+                    String column = columnName(component.getName());
+                    if (!allowedColumns.contains(column)) {
+                        throw new IllegalArgumentException(STR."Unknown column \{column} of projection \{type.getSimpleName()}");
+                    }
+                    return column;
+                })
+                .collect(Collectors.joining(", "));
+        try {
+            this.constructor = type.getDeclaredConstructor(componentTypes);
+            this.constructor.setAccessible(true);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException(STR."No canonical constructor of \{type}", e);
+        }
+    }
+
+    static String columnName(String componentName) {
+        return componentName.replaceAll("([a-z0-9])([A-Z])", "$1_$2").toUpperCase();
+    }
+
+    /**
+     * @return comma separated column list, i.e. "ID, FIRST_NAME, EMAIL"
+     */
+    String columns() {
+        return columns;
+    }
+
+    R read(ResultSet rs) throws SQLException {
+        Object[] values = new Object[componentTypes.length];
+        for (int i = 0; i < componentTypes.length; i++) {
+            values[i] = readValue(rs, i + 1, componentTypes[i]);
+        }
+        try {
+            return constructor.newInstance(values);
+        } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException(STR."Unable to create projection \{type.getSimpleName()}", e);
+        }
+    }
+
+    private static Object readValue(ResultSet rs, int column, Class<?> type) throws SQLException {
+        if (type == String.class) {
+            return rs.getString(column);
+        }
+        if (type == long.class) {
+            return rs.getLong(column);
+        }
+        if (type == Long.class) {
+            long value = rs.getLong(column);
+            return rs.wasNull() ? null : value;
+        }
+        if (type == BigDecimal.class) {
+            return rs.getBigDecimal(column);
+        }
+        if (type == ZonedDateTime.class) {
+            // stored in UTC, see PeopleRepository.mapForSave
+            Timestamp timestamp = rs.getTimestamp(column);
+            return timestamp == null ? null : ZonedDateTime.of(timestamp.toLocalDateTime(), UTC);
+        }
+        Class<?> target = type.isPrimitive() ? wrapper(type) : type;
+        Object value = rs.getObject(column, target);
+        if (value == null && type.isPrimitive()) {
+            throw new IllegalStateException(STR."Column \{column} is null, it can't be read as \{type}");
+        }
+        return value;
+    }
+
+    private static Class<?> wrapper(Class<?> primitive) {
+        return switch (primitive.getName()) {
+            case "int" -> Integer.class;
+            case "boolean" -> Boolean.class;
+            case "double" -> Double.class;
+            case "float" -> Float.class;
+            case "short" -> Short.class;
+            case "byte" -> Byte.class;
+            default -> throw new IllegalArgumentException(STR."Unsupported projection type: \{primitive}");
+        };
+    }
+}
@@ -0,0 +1,22 @@
+package dev.kwolszczak.peopledb.repository;
+
+import dev.kwolszczak.peopledb.model.CrudOperation;
+
+import java.util.Map;
+
+/**
+ * Metadata of a repository class generated at build time by RepositoryProcessor from its @SQL annotations,
+ * so creating a repository doesn't scan its methods nor generic superclass with reflection.
+ * Generated catalogs are found with ServiceLoader.
+ */
+public interface RepositoryCatalog {
+
+    Class<?> repositoryType();
+
+    Class<?> entityType();
+
+    /**
+     * @return SQL of the operations annotated on the repository, first annotation of an operation wins
+     */
+    Map<CrudOperation, String> sql();
+}
@@ -0,0 +1,77 @@
+package dev.kwolszczak.peopledb.repository;
+
+import dev.kwolszczak.peopledb.jdbc.StatementCache;
+import dev.kwolszczak.peopledb.jfr.TransactionEndEvent;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * One transaction on one connection. Repositories created with the same unit of work share
+ * cached statements and the identity map, so an entity loaded twice is the same instance.
+ * Identity map is cleared on commit and rollback. Closing the unit of work rolls back
+ * what was not committed, the connection itself stays open.
+ */
+public class UnitOfWork implements AutoCloseable {
+
+    private final StatementCache statements;
+    private final IdentityMap identityMap = new IdentityMap();
+
+    public UnitOfWork(Connection connection) {
+        this(new StatementCache(connection));
+    }
+
+    public UnitOfWork(StatementCache statements) {
+        this.statements = statements;
+        try {
+            statements.getConnection().setAutoCommit(false);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void commit() {
+        TransactionEndEvent event = TransactionEndEvent.begin("UnitOfWork", false);
+        try {
+            getConnection().commit();
+            event.finish(-1);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            identityMap.clear();
+        }
+    }
+
+    public void rollback() {
+        TransactionEndEvent event = TransactionEndEvent.begin("UnitOfWork", true);
+        try {
+            getConnection().rollback();
+            event.finish(-1);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            identityMap.clear();
+        }
+    }
+
+    public Connection getConnection() {
+        return statements.getConnection();
+    }
+
+    public StatementCache getStatements() {
+        return statements;
+    }
+
+    public IdentityMap getIdentityMap() {
+        return identityMap;
+    }
+
+    @Override
+    public void close() {
+        try {
+            rollback();
+        } finally {
+            statements.close();
+        }
+    }
+}
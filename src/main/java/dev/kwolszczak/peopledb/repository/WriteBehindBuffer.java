@@ -0,0 +1,225 @@
+package dev.kwolszczak.peopledb.repository;
+
+import dev.kwolszczak.peopledb.model.Entity;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Write-behind mode for updates and deletes. Writes are queued per id and coalesced - the last write of an id wins,
+ * so a row updated many times between flushes is written once. Queued writes are flushed with JDBC batches
+ * (updateAll/deleteAll) every flushInterval, when maxPending ids are queued, on flush() and on close().
+ * <p>
+ * Until flushed, writes are not visible to reads of the repository.
+ * Entities are copied when queued (see CrudRepository.detach()), the flush never touches the caller's instances,
+ * so they can be changed again right away. Entities which can't be copied are rejected.
+ * Scheduled flush runs on its own thread, so it needs a thread safe repository (created with a DataSource).
+ * For a repository sharing one connection pass null flushInterval and flush from the thread using the connection.
+ */
+public class WriteBehindBuffer<T extends Entity> implements AutoCloseable {
+
+    public static final int DEFAULT_MAX_PENDING = 1_000;
+    public static final Duration DEFAULT_FLUSH_INTERVAL = Duration.ofSeconds(1);
+
+    private record Write<T>(T entity, boolean delete) {
+    }
+
+    private final CrudRepository<T> repository;
+    private final int maxPending;
+    private final ReentrantLock pendingLock = new ReentrantLock();
+    // flushes are serialized, otherwise an older batch could be written after a newer one
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final ScheduledExecutorService scheduler;
+    private Map<Long, Write<T>> pending = new LinkedHashMap<>();
+    private volatile Consumer<RuntimeException> failureListener = e -> {
+    };
+    private volatile Thread shutdownHook;
+    private volatile boolean closed;
+
+    public WriteBehindBuffer(CrudRepository<T> repository) {
+        this(repository, DEFAULT_MAX_PENDING, DEFAULT_FLUSH_INTERVAL);
+    }
+
+    /**
+     * @param flushInterval delay between scheduled flushes, null to flush only when the buffer is full or explicitly
+     */
+    public WriteBehindBuffer(CrudRepository<T> repository, int maxPending, Duration flushInterval) {
+        if (maxPending < 1) {
+            throw new IllegalArgumentException(STR."Max pending writes must be positive, was: \{maxPending}");
+        }
+        this.repository = repository;
+        this.maxPending = maxPending;
+        if (flushInterval == null) {
+            this.scheduler = null;
+        } else {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform()
+                    .name("write-behind-flush")
+                    .daemon()
+                    .factory());
+            long delay = flushInterval.toNanos();
+            scheduler.scheduleWithFixedDelay(this::scheduledFlush, delay, delay, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public void update(T entity) {
+        enqueue(entity, false);
+    }
+
+    public void delete(T entity) {
+        enqueue(entity, true);
+    }
+
+    private void enqueue(T entity, boolean delete) {
+        if (closed) {
+            throw new IllegalStateException("Write-behind buffer is closed");
+        }
+        if (entity.getId() == null) {
+            throw new IllegalArgumentException(STR."Only saved entities can be written behind: \{entity}");
+        }
+        // queued state is a snapshot, flush thread must not share instances the caller keeps changing
+        T snapshot = repository.detach(entity);
+        if (snapshot == null) {
+            throw new IllegalArgumentException(STR."Entity can't be copied, so it can't be written behind: \{entity}");
+        }
+        Write<T> write = new Write<>(snapshot, delete);
+        boolean full;
+        pendingLock.lock();
+        try {
+            pending.put(write.entity().getId(), write);
+            full = pending.size() >= maxPending;
+        } finally {
+            pendingLock.unlock();
+        }
+        if (full) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes all queued updates and deletes. If writing fails, the writes stay queued
+     * (unless replaced by newer writes of the same ids in the meantime) and the exception is rethrown.
+     * @return number of written ids
+     */
+    public int flush() {
+        flushLock.lock();
+        try {
+            Map<Long, Write<T>> writes = drain();
+            if (writes.isEmpty()) {
+                return 0;
+            }
+            List<T> updates = new ArrayList<>();
+            List<T> deletes = new ArrayList<>();
+            for (Write<T> write : writes.values()) {
+                (write.delete() ? deletes : updates).add(write.entity());
+            }
+            try {
+                if (!deletes.isEmpty()) {
+                    repository.deleteAll(deletes);
+                }
+                if (!updates.isEmpty()) {
+                    repository.updateAll(updates);
+                }
+            } catch (RuntimeException e) {
+                requeue(writes);
+                throw e;
+            }
+            return writes.size();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private Map<Long, Write<T>> drain() {
+        pendingLock.lock();
+        try {
+            Map<Long, Write<T>> writes = pending;
+            pending = new LinkedHashMap<>();
+            return writes;
+        } finally {
+            pendingLock.unlock();
+        }
+    }
+
+    private void requeue(Map<Long, Write<T>> writes) {
+        pendingLock.lock();
+        try {
+            // writes queued after the drain are newer, they win
+            Map<Long, Write<T>> merged = new LinkedHashMap<>(writes);
+            merged.putAll(pending);
+            pending = merged;
+        } finally {
+            pendingLock.unlock();
+        }
+    }
+
+    private void scheduledFlush() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            // writes are kept for the next flush
+            failureListener.accept(e);
+        }
+    }
+
+    public int getPendingCount() {
+        pendingLock.lock();
+        try {
+            return pending.size();
+        } finally {
+            pendingLock.unlock();
+        }
+    }
+
+    /**
+     * Called with exceptions of scheduled flushes, which have no caller to throw to.
+     */
+    public void setFailureListener(Consumer<RuntimeException> failureListener) {
+        this.failureListener = failureListener;
+    }
+
+    /**
+     * Flushes pending writes when JVM shuts down normally, in case close() is never called.
+     */
+    public void registerShutdownHook() {
+        if (shutdownHook == null) {
+            shutdownHook = Thread.ofPlatform().name("write-behind-shutdown").unstarted(this::close);
+            Runtime.getRuntime().addShutdownHook(shutdownHook);
+        }
+    }
+
+    /**
+     * Stops scheduled flushes and flushes pending writes. Repository is not closed.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (scheduler != null) {
+            scheduler.shutdown();
+            try {
+                scheduler.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        Thread hook = shutdownHook;
+        if (hook != null && hook != Thread.currentThread()) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(hook);
+            } catch (IllegalStateException e) {
+                // JVM is already shutting down
+            }
+        }
+        flush();
+    }
+}
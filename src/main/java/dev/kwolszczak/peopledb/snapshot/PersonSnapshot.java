@@ -0,0 +1,365 @@
+package dev.kwolszczak.peopledb.snapshot;
+
+import dev.kwolszczak.peopledb.model.Address;
+import dev.kwolszczak.peopledb.model.Person;
+import dev.kwolszczak.peopledb.model.Region;
+import dev.kwolszczak.peopledb.model.SalaryStats;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+/**
+ * Read-only columnar copy of people with their home address, for repeated scans without the database.
+ * Every column is a primitive array indexed by row, rows are ordered by id:
+ * salary is kept as long scaled by SALARY_SCALE, DOB as epoch millis, region as ordinal and
+ * strings as codes of one dictionary. NULL (or NO_REGION) marks missing values.
+ * <p>
+ * Scans take a row predicate, i.e. {@code snapshot.salaryBetween(min, max).and(snapshot.inRegion(Region.WEST))},
+ * and run in parallel. Snapshot is immutable, so it can be shared by threads, see PersonSnapshotLoader for refresh.
+ */
+public final class PersonSnapshot {
+
+    public static final int SALARY_SCALE = 2;
+    public static final long NULL = Long.MIN_VALUE;
+    public static final byte NO_REGION = -1;
+
+    private static final Region[] REGIONS = Region.values();
+    private static final ZoneId UTC = ZoneId.of("+0");
+    private static final long[] NO_LONGS = new long[0];
+    private static final int[] NO_INTS = new int[0];
+
+    static final PersonSnapshot EMPTY = new PersonSnapshot(0, NO_LONGS, NO_LONGS, NO_LONGS, new byte[0],
+            NO_INTS, NO_INTS, NO_INTS, NO_INTS, NO_INTS, StringDictionary.EMPTY);
+
+    private final int size;
+    private final long[] ids;
+    private final long[] salaries;
+    private final long[] dobs;
+    private final byte[] regions;
+    private final int[] firstNames;
+    private final int[] lastNames;
+    private final int[] emails;
+    private final int[] cities;
+    private final int[] states;
+    private final StringDictionary strings;
+
+    private PersonSnapshot(int size, long[] ids, long[] salaries, long[] dobs, byte[] regions, int[] firstNames,
+                           int[] lastNames, int[] emails, int[] cities, int[] states, StringDictionary strings) {
+        this.size = size;
+        this.ids = ids;
+        this.salaries = salaries;
+        this.dobs = dobs;
+        this.regions = regions;
+        this.firstNames = firstNames;
+        this.lastNames = lastNames;
+        this.emails = emails;
+        this.cities = cities;
+        this.states = states;
+        this.strings = strings;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return row of the person, negative if there is no such id
+     */
+    public int rowOf(long id) {
+        int row = Arrays.binarySearch(ids, 0, size, id);
+        return row < 0 ? -1 : row;
+    }
+
+    public long id(int row) {
+        return ids[row];
+    }
+
+    /**
+     * @return salary scaled by SALARY_SCALE, i.e. 1234.50 is 123450, NULL if unknown
+     */
+    public long scaledSalary(int row) {
+        return salaries[row];
+    }
+
+    public BigDecimal salary(int row) {
+        return salaries[row] == NULL ? null : BigDecimal.valueOf(salaries[row], SALARY_SCALE);
+    }
+
+    /**
+     * @return epoch millis, NULL if unknown
+     */
+    public long dobMillis(int row) {
+        return dobs[row];
+    }
+
+    public ZonedDateTime dob(int row) {
+        return dobs[row] == NULL ? null : ZonedDateTime.ofInstant(Instant.ofEpochMilli(dobs[row]), UTC);
+    }
+
+    public Region region(int row) {
+        return regions[row] == NO_REGION ? null : REGIONS[regions[row]];
+    }
+
+    public String firstName(int row) {
+        return strings.get(firstNames[row]);
+    }
+
+    public String lastName(int row) {
+        return strings.get(lastNames[row]);
+    }
+
+    public String email(int row) {
+        return strings.get(emails[row]);
+    }
+
+    public String city(int row) {
+        return strings.get(cities[row]);
+    }
+
+    public String state(int row) {
+        return strings.get(states[row]);
+    }
+
+    public IntPredicate salaryBetween(BigDecimal min, BigDecimal max) {
+        long from = scale(min);
+        long to = scale(max);
+        return row -> salaries[row] != NULL && salaries[row] >= from && salaries[row] <= to;
+    }
+
+    /**
+     * @param to exclusive
+     */
+    public IntPredicate bornBetween(ZonedDateTime from, ZonedDateTime to) {
+        long fromMillis = from.toInstant().toEpochMilli();
+        long toMillis = to.toInstant().toEpochMilli();
+        return row -> dobs[row] != NULL && dobs[row] >= fromMillis && dobs[row] < toMillis;
+    }
+
+    public IntPredicate inRegion(Region region) {
+        byte ordinal = (byte) region.ordinal();
+        return row -> regions[row] == ordinal;
+    }
+
+    public IntPredicate inState(String state) {
+        // strings are compared by their codes, values are looked up once
+        int code = codeOf(state);
+        return row -> states[row] == code;
+    }
+
+    private int codeOf(String value) {
+        for (int code = 0; code < strings.size(); code++) {
+            if (strings.get(code).equals(value)) {
+                return code;
+            }
+        }
+        return Integer.MIN_VALUE;
+    }
+
+    /**
+     * @return matching rows in ascending order
+     */
+    public int[] filter(IntPredicate predicate) {
+        return rows().filter(predicate).toArray();
+    }
+
+    public long count(IntPredicate predicate) {
+        return rows().filter(predicate).count();
+    }
+
+    /**
+     * All rows, parallel.
+     */
+    public IntStream rows() {
+        return IntStream.range(0, size).parallel();
+    }
+
+    /**
+     * Salary statistics of matching rows, like PeopleRepository.salaryStats() without percentiles.
+     */
+    public SalaryStats salaryStats(IntPredicate predicate) {
+        SalaryAccumulator total = rows().filter(predicate)
+                .collect(SalaryAccumulator::new, (acc, row) -> acc.add(salaries[row]), SalaryAccumulator::merge);
+        return total.toStats(null);
+    }
+
+    /**
+     * Salary statistics of matching rows per home address region, rows without region are left out.
+     */
+    public Map<Region, SalaryStats> salaryStatsByRegion(IntPredicate predicate) {
+        SalaryAccumulator[] byRegion = rows().filter(predicate)
+                .filter(row -> regions[row] != NO_REGION)
+                .collect(SalaryAccumulator::forRegions,
+                        (acc, row) -> acc[regions[row]].add(salaries[row]),
+                        (left, right) -> {
+                            for (int i = 0; i < left.length; i++) {
+                                left[i].merge(right[i]);
+                            }
+                        });
+        Map<Region, SalaryStats> stats = new EnumMap<>(Region.class);
+        for (Region region : REGIONS) {
+            if (byRegion[region.ordinal()].count > 0) {
+                stats.put(region, byRegion[region.ordinal()].toStats(region.name()));
+            }
+        }
+        return stats;
+    }
+
+    private static final class SalaryAccumulator {
+        private long count;
+        private long salaryCount;
+        private long sum;
+        private long min = Long.MAX_VALUE;
+        private long max = Long.MIN_VALUE;
+
+        static SalaryAccumulator[] forRegions() {
+            SalaryAccumulator[] accumulators = new SalaryAccumulator[REGIONS.length];
+            Arrays.setAll(accumulators, i -> new SalaryAccumulator());
+            return accumulators;
+        }
+
+        void add(long salary) {
+            count++;
+            if (salary != NULL) {
+                salaryCount++;
+                sum += salary;
+                min = Math.min(min, salary);
+                max = Math.max(max, salary);
+            }
+        }
+
+        void merge(SalaryAccumulator other) {
+            count += other.count;
+            salaryCount += other.salaryCount;
+            sum += other.sum;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+        }
+
+        SalaryStats toStats(String group) {
+            if (salaryCount == 0) {
+                return new SalaryStats(group, count, null, null, null, null, Map.of());
+            }
+            BigDecimal total = BigDecimal.valueOf(sum, SALARY_SCALE);
+            return new SalaryStats(group, count, total,
+                    total.divide(BigDecimal.valueOf(salaryCount), MathContext.DECIMAL64),
+                    BigDecimal.valueOf(min, SALARY_SCALE), BigDecimal.valueOf(max, SALARY_SCALE), Map.of());
+        }
+    }
+
+    private static long scale(BigDecimal value) {
+        return value.setScale(SALARY_SCALE, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
+    Builder toBuilder(int capacity) {
+        return new Builder(capacity, strings);
+    }
+
+    /**
+     * Appends rows in id order. Rows of another snapshot are copied column by column,
+     * their string codes stay valid because the builder extends the dictionary of that snapshot.
+     */
+    static final class Builder {
+        private int size;
+        private long[] ids;
+        private long[] salaries;
+        private long[] dobs;
+        private byte[] regions;
+        private int[] firstNames;
+        private int[] lastNames;
+        private int[] emails;
+        private int[] cities;
+        private int[] states;
+        private final StringDictionary.Builder strings;
+
+        Builder(int capacity, StringDictionary dictionary) {
+            capacity = Math.max(capacity, 16);
+            ids = new long[capacity];
+            salaries = new long[capacity];
+            dobs = new long[capacity];
+            regions = new byte[capacity];
+            firstNames = new int[capacity];
+            lastNames = new int[capacity];
+            emails = new int[capacity];
+            cities = new int[capacity];
+            states = new int[capacity];
+            strings = dictionary.toBuilder();
+        }
+
+        void add(Person person) {
+            ensureCapacity(size + 1);
+            if (size > 0 && person.getId() <= ids[size - 1]) {
+                throw new IllegalStateException(STR."Rows must be added in id order, \{person.getId()} after \{ids[size - 1]}");
+            }
+            ids[size] = person.getId();
+            salaries[size] = person.getSalary() == null ? NULL : scale(person.getSalary());
+            dobs[size] = person.getDob() == null ? NULL : person.getDob().toInstant().toEpochMilli();
+            firstNames[size] = strings.encode(person.getFirstName());
+            lastNames[size] = strings.encode(person.getLastName());
+            emails[size] = strings.encode(person.getEmail());
+            Address home = person.getHomeAddress().orElse(null);
+            regions[size] = home == null || home.region() == null ? NO_REGION : (byte) home.region().ordinal();
+            cities[size] = strings.encode(home == null ? null : home.city());
+            states[size] = strings.encode(home == null ? null : home.state());
+            size++;
+        }
+
+        /**
+         * Copies rows from (inclusive) to (exclusive) of the snapshot this builder was created from.
+         */
+        void addRows(PersonSnapshot snapshot, int from, int to) {
+            int count = to - from;
+            if (count <= 0) {
+                return;
+            }
+            if (size > 0 && snapshot.ids[from] <= ids[size - 1]) {
+                throw new IllegalStateException(STR."Rows must be added in id order, \{snapshot.ids[from]} after \{ids[size - 1]}");
+            }
+            ensureCapacity(size + count);
+            System.arraycopy(snapshot.ids, from, ids, size, count);
+            System.arraycopy(snapshot.salaries, from, salaries, size, count);
+            System.arraycopy(snapshot.dobs, from, dobs, size, count);
+            System.arraycopy(snapshot.regions, from, regions, size, count);
+            System.arraycopy(snapshot.firstNames, from, firstNames, size, count);
+            System.arraycopy(snapshot.lastNames, from, lastNames, size, count);
+            System.arraycopy(snapshot.emails, from, emails, size, count);
+            System.arraycopy(snapshot.cities, from, cities, size, count);
+            System.arraycopy(snapshot.states, from, states, size, count);
+            size += count;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity <= ids.length) {
+                return;
+            }
+            int newCapacity = Math.max(capacity, ids.length + (ids.length >> 1));
+            ids = Arrays.copyOf(ids, newCapacity);
+            salaries = Arrays.copyOf(salaries, newCapacity);
+            dobs = Arrays.copyOf(dobs, newCapacity);
+            regions = Arrays.copyOf(regions, newCapacity);
+            firstNames = Arrays.copyOf(firstNames, newCapacity);
+            lastNames = Arrays.copyOf(lastNames, newCapacity);
+            emails = Arrays.copyOf(emails, newCapacity);
+            cities = Arrays.copyOf(cities, newCapacity);
+            states = Arrays.copyOf(states, newCapacity);
+        }
+
+        /**
+         * Columns are trimmed to size, so the snapshot doesn't keep spare capacity.
+         */
+        PersonSnapshot build() {
+            return new PersonSnapshot(size, Arrays.copyOf(ids, size), Arrays.copyOf(salaries, size),
+                    Arrays.copyOf(dobs, size), Arrays.copyOf(regions, size), Arrays.copyOf(firstNames, size),
+                    Arrays.copyOf(lastNames, size), Arrays.copyOf(emails, size), Arrays.copyOf(cities, size),
+                    Arrays.copyOf(states, size), strings.build());
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package dev.kwolszczak.peopledb.snapshot;
+
+import dev.kwolszczak.peopledb.model.Person;
+import dev.kwolszczak.peopledb.repository.PeopleRepository;
+
+import java.util.stream.Stream;
+
+/**
+ * Builds PersonSnapshot from a cursor scan of PEOPLE joined with home addresses, people are not kept
+ * after their row is copied to the columns.
+ */
+public class PersonSnapshotLoader {
+
+    private final PeopleRepository repository;
+
+    public PersonSnapshotLoader(PeopleRepository repository) {
+        this.repository = repository;
+    }
+
+    public PersonSnapshot load() {
+        return refresh(PersonSnapshot.EMPTY, new PeopleRepository.IdRange(Long.MIN_VALUE, Long.MAX_VALUE));
+    }
+
+    /**
+     * Reloads people with ids in the range (both ends inclusive): rows of the range are replaced by the current
+     * content of the table, so updated, inserted and deleted people of the range are reflected. Rows outside
+     * the range are copied from the snapshot as they are. The snapshot itself doesn't change.
+     * Dictionary keeps strings no longer used by any row until the next load().
+     */
+    public PersonSnapshot refresh(PersonSnapshot snapshot, PeopleRepository.IdRange range) {
+        int from = firstRowNotBefore(snapshot, range.min());
+        int to = range.max() == Long.MAX_VALUE ? snapshot.size() : firstRowNotBefore(snapshot, range.max() + 1);
+        PersonSnapshot.Builder builder = snapshot.toBuilder(snapshot.size() - (to - from));
+        builder.addRows(snapshot, 0, from);
+        try (Stream<Person> people = repository.findAllInIdRange(range.min(), range.max())) {
+            people.forEach(builder::add);
+        }
+        builder.addRows(snapshot, to, snapshot.size());
+        return builder.build();
+    }
+
+    private static int firstRowNotBefore(PersonSnapshot snapshot, long id) {
+        int low = 0;
+        int high = snapshot.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (snapshot.id(mid) < id) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
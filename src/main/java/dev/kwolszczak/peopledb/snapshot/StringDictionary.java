@@ -0,0 +1,64 @@
+package dev.kwolszczak.peopledb.snapshot;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Distinct strings of a snapshot, string columns keep codes (indexes) of their values.
+ * Immutable, a refreshed snapshot gets a copy extended with new values, so codes of existing values stay the same.
+ */
+final class StringDictionary {
+
+    static final int NULL_CODE = -1;
+    static final StringDictionary EMPTY = new StringDictionary(new String[0]);
+
+    private final String[] values;
+
+    private StringDictionary(String[] values) {
+        this.values = values;
+    }
+
+    String get(int code) {
+        return code == NULL_CODE ? null : values[code];
+    }
+
+    int size() {
+        return values.length;
+    }
+
+    Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    static final class Builder {
+        private final List<String> values;
+        private final Map<String, Integer> codes;
+
+        private Builder(StringDictionary dictionary) {
+            values = new ArrayList<>(List.of(dictionary.values));
+            codes = new HashMap<>(Math.max(16, dictionary.values.length * 2));
+            for (int code = 0; code < dictionary.values.length; code++) {
+                codes.put(dictionary.values[code], code);
+            }
+        }
+
+        int encode(String value) {
+            if (value == null) {
+                return NULL_CODE;
+            }
+            Integer code = codes.get(value);
+            if (code == null) {
+                code = values.size();
+                values.add(value);
+                codes.put(value, code);
+            }
+            return code;
+        }
+
+        StringDictionary build() {
+            return new StringDictionary(values.toArray(String[]::new));
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package export;
+
+import dev.kwolszczak.peopledb.export.ExportFormat;
+import dev.kwolszczak.peopledb.export.ExportProgress;
+import dev.kwolszczak.peopledb.export.PersonBinaryReader;
+import dev.kwolszczak.peopledb.export.PersonExporter;
+import dev.kwolszczak.peopledb.ingest.PersonCsvParser;
+import dev.kwolszczak.peopledb.model.Person;
+import dev.kwolszczak.peopledb.repository.PeopleRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PersonExporterTests {
+
+    private static final String HEADER = "Emp ID,Name Prefix,First Name,Middle Initial,Last Name,Gender,E Mail,Father's Name,Mother's Name,Mother's Maiden Name,Date of Birth,Time of Birth,Age in Yrs.,Weight in Kgs.,Date of Joining,Quarter of Joining,Half of Joining,Year of Joining,Month of Joining,Month Name of Joining,Short Month,Day of Joining,DOW of Joining,Short DOW,Age in Company (Years),Salary,Last % Hike,SSN,Phone No. ,Place Name,County,City,State,Zip,Region,User Name,Password";
+    private static final String ROW = "742048,Mrs.,Lois,H,Walker,F,lois.walker@hotmail.com,Donald Walker,Helen Walker,Lewis,3/29/1981,09:36:23 PM,36.36,60,11/24/2003,Q4,H2,2003,11,November,Nov,24,Monday,Mon,13.68,168251,21%,467-99-4677,303-572-8492,Denver,Denver,Denver,CO,80224,West,lhwalker,DCa}.T}X:v?NP";
+
+    private Connection connection;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:C:/Users/kwolszczak_adm/Desktop/dev/DB/peopleDB");
+        connection.setAutoCommit(false);    // exported people are saved for the test only, they are rolled back
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        if (connection != null) {
+            connection.rollback();
+            connection.close();
+        }
+    }
+
+    @Test
+    void canExportPeopleToCsvAndBinary() throws IOException {
+        PersonCsvParser parser = new PersonCsvParser();
+        PeopleRepository repository = new PeopleRepository(connection);
+        List<Person> people = List.of(parser.parse(ROW), parser.parse(ROW), parser.parse(ROW));
+        repository.saveAll(people);
+        PeopleRepository.IdRange range = new PeopleRepository.IdRange(people.getFirst().getId(), people.getLast().getId());
+        List<ExportProgress> reported = new ArrayList<>();
+
+        PersonExporter exporter = new PersonExporter(repository);
+        exporter.setProgressEvery(2);
+        exporter.setProgressListener(reported::add);
+        Path csv = tempDir.resolve("people.csv");
+        ExportProgress csvProgress = exporter.export(csv, range);
+        exporter.setFormat(ExportFormat.BINARY);
+        exporter.setGzip(true);
+        ExportProgress binaryProgress = exporter.exportPartitioned(tempDir, 2, range);
+
+        List<String> lines = Files.readAllLines(csv);
+        assertThat(csvProgress.exportedRows()).isEqualTo(3);
+        assertThat(lines).hasSize(4).first().isEqualTo(HEADER);
+        Person fromCsv = parser.parse(lines.get(1));
+        assertThat(fromCsv.getDob()).isEqualTo(people.getFirst().getDob());
+        assertThat(fromCsv.getSalary()).isEqualByComparingTo(people.getFirst().getSalary());
+        assertThat(fromCsv.getEmail()).isEqualTo("lois.walker@hotmail.com");
+
+        List<Person> fromBinary = new ArrayList<>();
+        for (int partition = 0; partition < 2; partition++) {
+            try (PersonBinaryReader reader = PersonBinaryReader.open(exporter.partitionFile(tempDir, partition))) {
+                for (Person person = reader.next(); person != null; person = reader.next()) {
+                    fromBinary.add(person);
+                }
+            }
+        }
+        assertThat(binaryProgress.exportedRows()).isEqualTo(3);
+        assertThat(fromBinary).extracting(Person::getId).containsExactly(people.stream().map(Person::getId).toArray(Long[]::new));
+        assertThat(fromBinary).allSatisfy(person -> assertThat(person.getLastName()).isEqualTo("Walker"));
+        assertThat(reported).extracting(ExportProgress::exportedRows).containsExactly(2L, 2L);
+    }
+
+    @Test
+    void canLoadBackCsvOfPersonWithoutDob() throws IOException {
+        PersonCsvParser parser = new PersonCsvParser();
+        PeopleRepository repository = new PeopleRepository(connection);
+        Person person = repository.save(new Person("Lois", "Walker, \"Jr.\"", null));
+        PeopleRepository.IdRange range = new PeopleRepository.IdRange(person.getId(), person.getId());
+        Path csv = tempDir.resolve("people.csv");
+
+        new PersonExporter(repository).export(csv, range);
+
+        Person loaded = parser.parse(Files.readAllLines(csv).get(1));
+        assertThat(loaded.getDob()).isNull();
+        assertThat(loaded.getFirstName()).isEqualTo("Lois");
+        assertThat(loaded.getLastName()).isEqualTo("Walker, \"Jr.\"");
+        assertThat(loaded.getEmail()).isNull();
+    }
+
+    @Test
+    void failsOnTruncatedBinaryRecord() throws IOException {
+        // header ("PPLB", version 1) and the length of a record which is missing
+        Path file = Files.write(tempDir.resolve("truncated.bin"), ByteBuffer.allocate(12).putInt(0x50504C42).putInt(1).putInt(40).array());
+
+        try (PersonBinaryReader reader = PersonBinaryReader.open(file)) {
+            assertThatThrownBy(reader::next).isInstanceOf(IOException.class).hasMessage("Truncated people binary export");
+        }
+    }
+}
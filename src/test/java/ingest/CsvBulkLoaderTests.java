@@ -0,0 +1,73 @@
+package ingest;
+
+import dev.kwolszczak.peopledb.ingest.CsvBulkLoader;
+import dev.kwolszczak.peopledb.ingest.LoadProgress;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CsvBulkLoaderTests {
+
+    private static final String HEADER = "Emp ID,Name Prefix,First Name,Middle Initial,Last Name,Gender,E Mail,Father's Name,Mother's Name,Mother's Maiden Name,Date of Birth,Time of Birth,Age in Yrs.,Weight in Kgs.,Date of Joining,Quarter of Joining,Half of Joining,Year of Joining,Month of Joining,Month Name of Joining,Short Month,Day of Joining,DOW of Joining,Short DOW,Age in Company (Years),Salary,Last % Hike,SSN,Phone No. ,Place Name,County,City,State,Zip,Region,User Name,Password";
+    // the loader commits, rows are found by this email and deleted after the test
+    private static final String EMAIL = "lois.walker@bulkload.test";
+    private static final String ROW = "742048,Mrs.,Lois,H,Walker,F," + EMAIL + ",Donald Walker,Helen Walker,Lewis,3/29/1981,09:36:23 PM,36.36,60,11/24/2003,Q4,H2,2003,11,November,Nov,24,Monday,Mon,13.68,168251,21%,467-99-4677,303-572-8492,Denver,Denver,Denver,CO,80224,West,lhwalker,DCa}.T}X:v?NP";
+
+    private Connection connection;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:C:/Users/kwolszczak_adm/Desktop/dev/DB/peopleDB");
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        if (connection != null) {
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate(STR."DELETE FROM PEOPLE WHERE EMAIL = '\{EMAIL}'");
+            }
+            if (!connection.getAutoCommit()) {
+                connection.commit();
+            }
+            connection.close();
+        }
+    }
+
+    @Test
+    void canResumeLoadFromCheckpoint() throws IOException, SQLException {
+        Path csv = Files.write(tempDir.resolve("hr.csv"), List.of(HEADER, ROW, ROW, ROW, ROW, ROW));
+        Path checkpoint = Files.writeString(tempDir.resolve("hr.offset"), "2");
+        List<LoadProgress> commits = new ArrayList<>();
+        connection.setAutoCommit(true);
+
+        CsvBulkLoader loader = new CsvBulkLoader(connection);
+        loader.setChunkSize(2);
+        loader.setCommitEvery(2);
+        loader.setCheckpointFile(checkpoint);
+        loader.setProgressListener(commits::add);
+        LoadProgress progress = loader.load(csv);
+
+        assertThat(progress.committedRows()).isEqualTo(5);
+        assertThat(progress.loadedRows()).isEqualTo(3);
+        assertThat(commits).extracting(LoadProgress::committedRows).containsExactly(4L, 5L);
+        assertThat(Files.readString(checkpoint)).isEqualTo("5");
+        // caller's connection is back in auto commit mode
+        assertThat(connection.getAutoCommit()).isTrue();
+    }
+}
@@ -1,30 +1,85 @@
 package repository;
 
+import dev.kwolszczak.peopledb.annotation.Column;
+import dev.kwolszczak.peopledb.annotation.Id;
+import dev.kwolszczak.peopledb.annotation.Table;
+import dev.kwolszczak.peopledb.annotation.Version;
+import dev.kwolszczak.peopledb.cache.CacheStats;
+import dev.kwolszczak.peopledb.exception.OptimisticLockException;
+import dev.kwolszczak.peopledb.cache.LruEntityCache;
+import dev.kwolszczak.peopledb.jdbc.ConnectionPool;
+import dev.kwolszczak.peopledb.jfr.CascadeSaveEvent;
+import dev.kwolszczak.peopledb.jfr.RowMappingEvent;
+import dev.kwolszczak.peopledb.jfr.SqlExecutionEvent;
+import dev.kwolszczak.peopledb.metrics.OperationStats;
+import dev.kwolszczak.peopledb.metrics.RepositoryMetrics;
+import dev.kwolszczak.peopledb.jdbc.StatementCache;
 import dev.kwolszczak.peopledb.model.Address;
+import dev.kwolszczak.peopledb.model.CrudOperation;
+import dev.kwolszczak.peopledb.model.Entity;
+import dev.kwolszczak.peopledb.model.Page;
 import dev.kwolszczak.peopledb.model.Person;
+import dev.kwolszczak.peopledb.model.PersonSummary;
 import dev.kwolszczak.peopledb.model.Region;
+import dev.kwolszczak.peopledb.model.SalaryStats;
+import dev.kwolszczak.peopledb.model.UpsertOutcome;
+import dev.kwolszczak.peopledb.repository.AddressRepository;
+import dev.kwolszczak.peopledb.repository.AsyncRepository;
+import dev.kwolszczak.peopledb.repository.MappedRepository;
 import dev.kwolszczak.peopledb.repository.PeopleRepository;
+import dev.kwolszczak.peopledb.repository.RepositoryCatalog;
+import dev.kwolszczak.peopledb.repository.UnitOfWork;
+import dev.kwolszczak.peopledb.repository.WriteBehindBuffer;
+import dev.kwolszczak.peopledb.snapshot.PersonSnapshot;
+import dev.kwolszczak.peopledb.snapshot.PersonSnapshotLoader;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.h2.jdbcx.JdbcDataSource;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.time.Duration;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntPredicate;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 public class PeopleRepositoryTests {
 
+    private static final String URL = "jdbc:h2:C:/Users/kwolszczak_adm/Desktop/dev/DB/peopleDB;TRACE_LEVEL_SYSTEM_OUT=0";
+
     private Connection connection;
     private PeopleRepository repo;
 
     @BeforeEach
     void setUp() throws SQLException {
-        connection = DriverManager.getConnection("jdbc:h2:C:/Users/kwolszczak_adm/Desktop/dev/DB/peopleDB;TRACE_LEVEL_SYSTEM_OUT=0");
+        connection = DriverManager.getConnection(URL);
 
         connection.setAutoCommit(false);    //it's allows to not commit changes to db. All changes after connection.close() will be rollback
         repo = new PeopleRepository(connection);
@@ -95,6 +150,39 @@ public class PeopleRepositoryTests {
         connection.commit();
     }
 
+    @Test
+    void canSaveAllInBatches() {
+        Person john = new Person("John", "Smith", ZonedDateTime.of(1980, 11, 15, 15, 15, 0, 0, ZoneId.of("-6")));
+        Person bobby = new Person("Bobby", "Smith", ZonedDateTime.of(1982, 9, 13, 15, 7, 0, 0, ZoneId.of("-6")));
+        Person lisa = new Person("Lisa", "Smith", ZonedDateTime.of(2016, 9, 15, 15, 15, 0, 0, ZoneId.of("-6")));
+        Address address = new Address("123 Beale St.", "apt. 1A", "New Your", "WA", "90210", "United States", "Fulton County", Region.WEST);
+        john.setHomeAddress(address);
+        john.addChild(lisa);
+
+        int saved = repo.saveAll(List.of(john, bobby), 2);
+
+        assertThat(saved).isEqualTo(2);
+        assertThat(john.getId()).isPositive();
+        assertThat(bobby.getId()).isGreaterThan(john.getId());
+        assertThat(lisa.getId()).isGreaterThan(bobby.getId());
+        assertThat(repo.findById(john.getId()).get().getHomeAddress().get().id()).isEqualTo(address.id());
+    }
+
+    @Test
+    void reusesCachedStatements() {
+        StatementCache statements = new StatementCache(connection, 4);
+        PeopleRepository cachedRepo = new PeopleRepository(statements);
+
+        Person john = cachedRepo.save(new Person("John", "Smith", ZonedDateTime.of(1980, 11, 15, 15, 15, 0, 0, ZoneId.of("-6"))));
+        cachedRepo.save(new Person("Bobby", "Smith", ZonedDateTime.of(1982, 9, 13, 15, 7, 0, 0, ZoneId.of("-6"))));
+        cachedRepo.findById(john.getId());
+        cachedRepo.findById(john.getId());
+
+        assertThat(statements.getMisses()).isEqualTo(2);
+        assertThat(statements.getHits()).isEqualTo(2);
+        assertThat(statements.size()).isLessThanOrEqualTo(4);
+    }
+
     @Test
     void canFindPersonByIdWithAddress() throws SQLException {
         Person john = new Person("John", "Smith", ZonedDateTime.of(1980, 11, 15, 15, 15, 0, 0, ZoneId.of("-6")));
@@ -129,6 +217,21 @@ public class PeopleRepositoryTests {
         assertThat(foundPerson.getId()).isEqualTo(savedPerson.getId());
     }
 
+    @Test
+    void canFindPersonWithSalaryAndEmail() {
+        Person john = new Person("John", "Smith", ZonedDateTime.of(1980, 11, 15, 15, 15, 0, 0, ZoneId.of("+0")));
+        john.setSalary(new BigDecimal("73000.50"));
+        john.setEmail("john@smith.com");
+        Person savedPerson = repo.save(john);
+
+        Person foundPerson = repo.findById(savedPerson.getId()).get();
+
+        assertThat(foundPerson.getSalary()).isEqualByComparingTo("73000.50");
+        assertThat(foundPerson.getEmail()).isEqualTo("john@smith.com");
+        assertThat(foundPerson.getDob()).isEqualTo(john.getDob());
+        assertThat(foundPerson.getHomeAddress()).isEmpty();
+    }
+
     @Test
     void cantFindPersonById() {
         Optional<Person> foundPerson = repo.findById(-1L);
@@ -136,6 +239,435 @@ public class PeopleRepositoryTests {
         assertThat(foundPerson).isEmpty();
     }
 
+    @Test
+    void canFindAllLazily() {
+        Person john = repo.save(new Person("John", "Smith", ZonedDateTime.of(1980, 11, 15, 15, 15, 0, 0, ZoneId.of("-6"))));
+        Person bobby = repo.save(new Person("Bobby", "Smith", ZonedDateTime.of(1982, 9, 13, 15, 7, 0, 0, ZoneId.of("-6"))));
+        repo.setFetchSize(1);
+
+        try (Stream<Person> people = repo.findAll()) {
+            assertThat(people.map(Person::getId).filter(Set.of(john.getId(), bobby.getId())::contains))
+                    .containsExactlyInAnyOrder(john.getId(), bobby.getId());
+        }
+    }
+
+    @Test
+    void canFindPagesAfterId() {
+        Person john = repo.save(new Person("John", "Smith", ZonedDateTime.of(1980, 11, 15, 15, 15, 0, 0, ZoneId.of("-6"))));
+        Person bobby = repo.save(new Person("Bobby", "Smith", ZonedDateTime.of(1982, 9, 13, 15, 7, 0, 0, ZoneId.of("-6"))));
+        Person lisa = repo.save(new Person("Lisa", "Smith", ZonedDateTime.of(2016, 9, 15, 15, 15, 0, 0, ZoneId.of("-6"))));
+
+        Page<Person> first = repo.findPage(john.getId() - 1, 2);
+        Page<Person> second = repo.findPage(first.nextAfterId(), 2);
+
+        assertThat(first.content()).extracting(Person::getId).containsExactly(john.getId(), bobby.getId());
+        assertThat(first.hasNext()).isTrue();
+        assertThat(second.content()).extracting(Person::getId).containsExactly(lisa.getId());
+        assertThat(second.hasNext()).isFalse();
+    }
+
+    @Test
+    void canFindAllByIdInChunks() {
+        Person john = repo.save(new Person("John", "Smith", ZonedDateTime.of(1980, 11, 15, 15, 15, 0, 0, ZoneId.of("-6"))));
+        Person bobby = repo.save(new Person("Bobby", "Smith", ZonedDateTime.of(1982, 9, 13, 15, 7, 0, 0, ZoneId.of("-6"))));
+        Person lisa = repo.save(new Person("Lisa", "Smith", ZonedDateTime.of(2016, 9, 15, 15, 15, 0, 0, ZoneId.of("-6"))));
+
+        Map<Long, Person> found = repo.findAllById(List.of(john.getId(), bobby.getId(), lisa.getId(), -1L), 2);
+
+        assertThat(found).containsOnlyKeys(john.getId(), bobby.getId(), lisa.getId());
+        assertThat(found.get(bobby.getId()).getFirstName()).isEqualTo("Bobby");
+    }
+
+    @Test
+    void returnsSameInstanceWithinUnitOfWork() {
+        try (UnitOfWork unitOfWork = new UnitOfWork(connection)) {
+            PeopleRepository uowRepo = new PeopleRepository(unitOfWork);
+            Person john = new Person("John", "Smith", ZonedDateTime.of(1980, 11, 15, 15, 15, 0, 0, ZoneId.of("-6")));
+            john.setHomeAddress(new Address("123 Beale St.", "apt. 1A", "New Your", "WA", "90210", "United States", "Fulton County", Region.WEST));
+            Long id = repo.save(john).getId();
+
+            Person found = uowRepo.findById(id).get();
+            assertThat(uowRepo.findById(id).get()).isSameAs(found);
+            assertThat(uowRepo.findAllById(List.of(id)).get(id)).isSameAs(found);
+
+            // identity map ends with the transaction, the rolled back row is not served from it
+            unitOfWork.rollback();
+            assertThat(uowRepo.findById(id)).isEmpty();
+        }
+    }
+
+    @Test
+    void secondLevelCacheIsInvalidatedByWrites() {
+        LruEntityCache<Person> cache = new LruEntityCache<>(100);
+        repo.setSecondLevelCache(cache);
+        Person person = repo.save(new Person("tom", "johnson", ZonedDateTime.now().withZoneSameInstant(ZoneId.of("+0"))));
+
+        repo.findById(person.getId());
+        repo.findById(person.getId());
+        person.setLastName("Mimi");
+        repo.update(person);
+        Person foundAfterUpdate = repo.findById(person.getId()).get();
+        repo.delete(person);
+
+        CacheStats stats = cache.stats();
+        assertThat(stats.hits()).isEqualTo(1);
+        assertThat(stats.misses()).isEqualTo(2);
+        assertThat(foundAfterUpdate.getLastName()).isEqualTo("Mimi");
+        assertThat(repo.findById(person.getId())).isEmpty();
+    }
+
+    @Test
+    void secondLevelCacheKeepsAddresses() {
+        AddressRepository addresses = new AddressRepository(connection);
+        LruEntityCache<Address> cache = new LruEntityCache<>(100);
+        addresses.setSecondLevelCache(cache);
+        Address saved = addresses.save(new Address("1 Cached St.", null, "Boston", "MA", "02101", "United States", "Suffolk County", Region.NORTHEAST));
+
+        Address first = addresses.findById(saved.id()).get();
+        Address second = addresses.findById(saved.id()).get();
+
+        assertThat(cache.stats().hits()).isEqualTo(1);
+        assertThat(second).isEqualTo(first).isNotSameAs(first);
+    }
+
+    @Test
+    void secondLevelCacheKeepsCopiesAndDropsStaleLoads() {
+        LruEntityCache<Person> cache = new LruEntityCache<>(100);
+        repo.setSecondLevelCache(cache);
+        Person person = repo.save(new Person("tom", "copy", ZonedDateTime.now().withZoneSameInstant(ZoneId.of("+0"))));
+
+        Person first = repo.findById(person.getId()).get();
+        first.setLastName("changed, not saved");
+        Person second = repo.findById(person.getId()).get();
+
+        assertThat(second).isNotSameAs(first);
+        assertThat(second.getLastName()).isEqualTo("copy");
+        long load = cache.startLoad(42L);
+        cache.invalidate(42L);
+        cache.putLoaded(42L, person, load);
+        assertThat(cache.get(42L)).isNull();
+    }
+
+    @Test
+    void canSaveAndFindFromManyThreadsWithPool() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try (ConnectionPool pool = new ConnectionPool(URL, 4)) {
+            PeopleRepository pooledRepo = new PeopleRepository(pool);
+            List<Future<Person>> found = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                String firstName = "Thread" + i;
+                found.add(executor.submit(() -> {
+                    Person person = new Person(firstName, "Smith", ZonedDateTime.of(1980, 11, 15, 15, 15, 0, 0, ZoneId.of("+0")));
+                    person.setHomeAddress(new Address("123 Beale St.", "apt. 1A", "New Your", "WA", "90210", "United States", "Fulton County", Region.WEST));
+                    Person saved = pooledRepo.save(person);
+                    return pooledRepo.findById(saved.getId()).get();
+                }));
+            }
+            for (int i = 0; i < found.size(); i++) {
+                Person person = found.get(i).get();
+                assertThat(person.getFirstName()).isEqualTo("Thread" + i);
+                assertThat(person.getHomeAddress()).isPresent();
+            }
+            assertThat(pool.getActiveCount()).isZero();
+            assertThat(pool.getIdleCount()).isLessThanOrEqualTo(4);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void failsCallsMadeWhileOpenStreamsHoldAllConnections() {
+        try (ConnectionPool pool = new ConnectionPool(URL, 1)) {
+            pool.setBorrowTimeout(Duration.ofMillis(100));
+            PeopleRepository pooledRepo = new PeopleRepository(pool);
+            try (Stream<Person> people = pooledRepo.findAll()) {
+                assertThatThrownBy(() -> pooledRepo.findById(1L)).hasRootCauseInstanceOf(SQLTimeoutException.class);
+            }
+            assertThat(pool.getActiveCount()).isZero();
+        }
+    }
+
+    @Test
+    void sharesOnePoolPerDataSource() {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL(URL);
+
+        ConnectionPool pool = ConnectionPool.of(dataSource);
+        assertThat(ConnectionPool.of(dataSource)).isSameAs(pool);
+        pool.close();
+        assertThat(ConnectionPool.of(dataSource)).isNotSameAs(pool);
+    }
+
+    @Test
+    void canSaveAndFindAsync() {
+        try (AsyncRepository<Person> asyncRepo = new AsyncRepository<>(repo)) {
+            assertThat(asyncRepo.getMaxConcurrency()).isEqualTo(1);
+            List<CompletableFuture<Person>> saved = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                saved.add(asyncRepo.saveAsync(new Person("Async" + i, "Smith", ZonedDateTime.of(1980, 11, 15, 15, 15, 0, 0, ZoneId.of("+0")))));
+            }
+            List<Long> ids = saved.stream().map(CompletableFuture::join).map(Person::getId).toList();
+
+            Optional<Person> found = asyncRepo.findByIdAsync(ids.getFirst()).join();
+            Map<Long, Person> foundAll = asyncRepo.findAllByIdAsync(ids).join();
+            asyncRepo.deleteAsync(found.get()).join();
+
+            assertThat(found.get().getFirstName()).isEqualTo("Async0");
+            assertThat(foundAll).hasSize(20);
+            assertThat(asyncRepo.findByIdAsync(ids.getFirst()).join()).isEmpty();
+            assertThat(asyncRepo.getActiveCount()).isZero();
+        }
+    }
+
+    @Test
+    void writeBehindCoalescesUpdatesAndDeletes() {
+        Person john = repo.save(new Person("John", "Smith", ZonedDateTime.of(1980, 11, 15, 15, 15, 0, 0, ZoneId.of("-6"))));
+        Person bobby = repo.save(new Person("Bobby", "Smith", ZonedDateTime.of(1982, 9, 13, 15, 7, 0, 0, ZoneId.of("-6"))));
+
+        try (WriteBehindBuffer<Person> buffer = new WriteBehindBuffer<>(repo, 100, null)) {
+            for (int i = 0; i < 5; i++) {
+                john.setLastName("Smith" + i);
+                buffer.update(john);
+            }
+            buffer.update(bobby);
+            buffer.delete(bobby);
+
+            assertThat(buffer.getPendingCount()).isEqualTo(2);
+            assertThat(repo.findById(john.getId()).get().getLastName()).isEqualTo("Smith");
+            // queued write is a snapshot, later changes are not flushed
+            john.setLastName("Unqueued");
+            assertThat(buffer.flush()).isEqualTo(2);
+            assertThat(john.getDirtyFields()).isNotEmpty();
+        }
+
+        assertThat(repo.findById(john.getId()).get().getLastName()).isEqualTo("Smith4");
+        assertThat(repo.findById(bobby.getId())).isEmpty();
+    }
+
+    @Test
+    void recordsOperationMetrics() {
+        RepositoryMetrics metrics = new RepositoryMetrics();
+        repo.setMetrics(metrics);
+        Person john = repo.save(new Person("John", "Smith", ZonedDateTime.of(1980, 11, 15, 15, 15, 0, 0, ZoneId.of("-6"))));
+        repo.findById(john.getId());
+        repo.findById(-1L);
+
+        OperationStats findById = metrics.stats(Person.class, "findById").get();
+        assertThat(findById.calls()).isEqualTo(2);
+        assertThat(findById.rows()).isEqualTo(1);
+        assertThat(findById.errors()).isZero();
+        assertThat(findById.p999()).isGreaterThanOrEqualTo(findById.p50()).isPositive();
+        assertThat(metrics.stats(Person.class, "save").get().calls()).isEqualTo(1);
+    }
+
+    @Test
+    void recordsFlightRecorderEvents() throws Exception {
+        List<RecordedEvent> events;
+        try (Recording recording = new Recording()) {
+            recording.enable(SqlExecutionEvent.class);
+            recording.enable(RowMappingEvent.class);
+            recording.enable(CascadeSaveEvent.class);
+            recording.start();
+            Person john = new Person("John", "Smith", ZonedDateTime.of(1980, 11, 15, 15, 15, 0, 0, ZoneId.of("-6")));
+            john.setHomeAddress(new Address("123 Beale St.", "apt. 1A", "New Your", "WA", "90210", "United States", "Fulton County", Region.WEST));
+            repo.findById(repo.save(john).getId());
+            recording.stop();
+            Path file = Files.createTempFile("repository", ".jfr");
+            recording.dump(file);
+            events = RecordingFile.readAllEvents(file);
+            Files.delete(file);
+        }
+
+        assertThat(events).extracting(event -> event.getEventType().getName())
+                .contains("dev.kwolszczak.peopledb.SqlExecution", "dev.kwolszczak.peopledb.RowMapping", "dev.kwolszczak.peopledb.CascadeSave");
+        assertThat(events).filteredOn(event -> event.getEventType().getName().equals("dev.kwolszczak.peopledb.RowMapping"))
+                .singleElement()
+                .satisfies(event -> {
+                    assertThat(event.getString("operation")).isEqualTo("FIND_BY_ID");
+                    assertThat(event.getLong("rows")).isEqualTo(1);
+                });
+    }
+
+    @Test
+    void canFindFamilyTreeInOneQuery() {
+        Person grandpa = new Person("Grandpa", "Smith", ZonedDateTime.of(1930, 1, 1, 0, 0, 0, 0, ZoneId.of("+0")));
+        Person father = new Person("Father", "Smith", ZonedDateTime.of(1960, 1, 1, 0, 0, 0, 0, ZoneId.of("+0")));
+        Person uncle = new Person("Uncle", "Smith", ZonedDateTime.of(1962, 1, 1, 0, 0, 0, 0, ZoneId.of("+0")));
+        Person son = new Person("Son", "Smith", ZonedDateTime.of(1990, 1, 1, 0, 0, 0, 0, ZoneId.of("+0")));
+        son.setHomeAddress(new Address("123 Beale St.", "apt. 1A", "New Your", "WA", "90210", "United States", "Fulton County", Region.WEST));
+        grandpa.addChild(father);
+        grandpa.addChild(uncle);
+        father.addChild(son);
+        repo.save(grandpa);
+
+        Person tree = repo.findWithDescendants(grandpa.getId(), 10).get();
+        Person shallowTree = repo.findWithDescendants(grandpa.getId(), 1).get();
+        List<Person> ancestors = repo.findAncestors(son.getId());
+
+        assertThat(tree.getChildren()).extracting(Person::getFirstName).containsExactlyInAnyOrder("Father", "Uncle");
+        Person loadedFather = tree.getChildren().stream().filter(child -> child.getFirstName().equals("Father")).findFirst().get();
+        assertThat(loadedFather.getParent()).containsSame(tree);
+        assertThat(loadedFather.getChildren()).singleElement()
+                .satisfies(loadedSon -> assertThat(loadedSon.getHomeAddress()).isPresent());
+        assertThat(shallowTree.getChildren()).allSatisfy(child -> assertThat(child.getChildren()).isEmpty());
+        assertThat(ancestors).extracting(Person::getFirstName).containsExactly("Father", "Grandpa");
+        assertThat(repo.findAncestors(grandpa.getId())).isEmpty();
+        assertThat(repo.findWithDescendants(-1L, 10)).isEmpty();
+    }
+
+    @Test
+    void canLoadAddressesLazilyInBatch() {
+        Person ann = new Person("Ann", "Lazy", ZonedDateTime.of(1980, 1, 1, 0, 0, 0, 0, ZoneId.of("+0")));
+        Person tom = new Person("Tom", "Lazy", ZonedDateTime.of(1981, 1, 1, 0, 0, 0, 0, ZoneId.of("+0")));
+        ann.setHomeAddress(new Address("1 Main St.", null, "Boston", "MA", "02101", "United States", "Suffolk County", Region.NORTHEAST));
+        tom.setBusinessAddress(new Address("2 Main St.", null, "Boston", "MA", "02101", "United States", "Suffolk County", Region.NORTHEAST));
+        repo.saveAll(List.of(ann, tom));
+        PeopleRepository lazyRepo = new PeopleRepository(connection);
+        lazyRepo.setAddressFetch(PeopleRepository.AddressFetch.LAZY_BATCH);
+        long batchLoads = addressBatchLoads();
+
+        Map<Long, Person> found = lazyRepo.findAllById(List.of(ann.getId(), tom.getId()));
+
+        assertThat(addressBatchLoads()).isEqualTo(batchLoads);
+        assertThat(found.get(ann.getId()).getHomeAddress()).get().extracting(Address::city).isEqualTo("Boston");
+        assertThat(found.get(tom.getId()).getBusinessAddress()).get().extracting(Address::streetAddress).isEqualTo("2 Main St.");
+        assertThat(found.get(tom.getId()).getHomeAddress()).isEmpty();
+        assertThat(addressBatchLoads()).isEqualTo(batchLoads + 1);
+    }
+
+    @Test
+    void doesNotCachePeopleWithPendingAddressLoads() {
+        Person ann = new Person("Ann", "Lazy", ZonedDateTime.of(1980, 1, 1, 0, 0, 0, 0, ZoneId.of("+0")));
+        ann.setHomeAddress(new Address("1 Main St.", null, "Boston", "MA", "02101", "United States", "Suffolk County", Region.NORTHEAST));
+        repo.save(ann);
+        LruEntityCache<Person> cache = new LruEntityCache<>(100);
+        PeopleRepository lazyRepo = new PeopleRepository(connection);
+        lazyRepo.setAddressFetch(PeopleRepository.AddressFetch.LAZY);
+        lazyRepo.setSecondLevelCache(cache);
+        repo.setSecondLevelCache(cache);
+
+        assertThat(lazyRepo.findById(ann.getId()).get().hasPendingLoads()).isTrue();
+        assertThat(cache.get(ann.getId())).isNull();
+        repo.findById(ann.getId());
+        assertThat(cache.get(ann.getId()).hasPendingLoads()).isFalse();
+    }
+
+    private static long addressBatchLoads() {
+        return RepositoryMetrics.getDefault().stats(Address.class, "findAllById").map(OperationStats::calls).orElse(0L);
+    }
+
+    @Test
+    void canFindProjection() {
+        Person john = repo.save(new Person("John", "Projected", ZonedDateTime.of(1980, 11, 15, 15, 15, 0, 0, ZoneId.of("+0"))));
+        Person jane = new Person("Jane", "Projected", ZonedDateTime.of(1985, 1, 1, 0, 0, 0, 0, ZoneId.of("+0")));
+        jane.setEmail("jane@projected.com");
+        repo.save(jane);
+
+        Optional<PersonSummary> summary = repo.findById(jane.getId(), PersonSummary.class);
+        List<PersonSummary> summaries = repo.findAllById(List.of(john.getId(), jane.getId(), -1L), PersonSummary.class);
+
+        assertThat(summary).contains(new PersonSummary(jane.getId(), "Jane", "Projected", "jane@projected.com"));
+        assertThat(summaries).extracting(PersonSummary::firstName).containsExactlyInAnyOrder("John", "Jane");
+        assertThat(repo.findById(-1L, PersonSummary.class)).isEmpty();
+    }
+
+    @Test
+    void canAggregateSalaryStats() {
+        for (int salary : new int[]{100, 200, 300}) {
+            Person person = new Person("Old", "Timer", ZonedDateTime.of(1901, 6, 1, 0, 0, 0, 0, ZoneId.of("+0")));
+            person.setSalary(new BigDecimal(salary));
+            repo.save(person);
+        }
+
+        SalaryStats stats;
+        try (Stream<SalaryStats> byYear = repo.salaryStats(PeopleRepository.SalaryGroup.DOB_YEAR, 0.5, 0.9)) {
+            stats = byYear.filter(group -> "1901".equals(group.group())).findFirst().get();
+        }
+
+        assertThat(stats.count()).isEqualTo(3);
+        assertThat(stats.sum()).isEqualByComparingTo("600");
+        assertThat(stats.average()).isEqualByComparingTo("200");
+        assertThat(stats.min()).isEqualByComparingTo("100");
+        assertThat(stats.max()).isEqualByComparingTo("300");
+        assertThat(stats.percentile(0.5)).isEqualByComparingTo("200");
+        assertThat(stats.percentile(0.9)).isEqualByComparingTo("280");
+    }
+
+    @Test
+    void canScanAndRefreshSnapshot() {
+        List<Person> people = new ArrayList<>();
+        for (int salary : new int[]{100, 200, 300}) {
+            Person person = new Person("Snap", "Shot", ZonedDateTime.of(1902, 3, 1, 0, 0, 0, 0, ZoneId.of("+0")));
+            person.setSalary(new BigDecimal(salary));
+            if (salary < 300) {
+                person.setHomeAddress(new Address("1 Main St.", null, "Denver", "CO", "80224", "United States", "Denver", Region.WEST));
+            }
+            people.add(person);
+        }
+        repo.saveAll(people);
+        PersonSnapshotLoader loader = new PersonSnapshotLoader(repo);
+
+        PersonSnapshot snapshot = loader.load();
+        IntPredicate bornIn1902 = snapshot.bornBetween(ZonedDateTime.of(1902, 1, 1, 0, 0, 0, 0, ZoneId.of("+0")), ZonedDateTime.of(1903, 1, 1, 0, 0, 0, 0, ZoneId.of("+0")));
+
+        assertThat(snapshot.count(bornIn1902)).isEqualTo(3);
+        assertThat(snapshot.salaryStats(bornIn1902).sum()).isEqualByComparingTo("600");
+        assertThat(snapshot.salaryStatsByRegion(bornIn1902)).containsOnlyKeys(Region.WEST)
+                .extractingByKey(Region.WEST).satisfies(west -> assertThat(west.max()).isEqualByComparingTo("200"));
+        int[] wellPaid = snapshot.filter(bornIn1902.and(snapshot.salaryBetween(new BigDecimal(150), new BigDecimal(1000))));
+        assertThat(Arrays.stream(wellPaid).mapToLong(snapshot::id)).containsExactly(people.get(1).getId(), people.get(2).getId());
+
+        Person changed = people.get(2);
+        changed.setFirstName("Changed");
+        repo.update(changed);
+        repo.delete(people.get(1));
+        PersonSnapshot refreshed = loader.refresh(snapshot, new PeopleRepository.IdRange(people.get(1).getId(), changed.getId()));
+
+        assertThat(refreshed.size()).isEqualTo(snapshot.size() - 1);
+        assertThat(refreshed.rowOf(people.get(1).getId())).isNegative();
+        assertThat(refreshed.firstName(refreshed.rowOf(changed.getId()))).isEqualTo("Changed");
+        assertThat(refreshed.city(refreshed.rowOf(people.getFirst().getId()))).isEqualTo("Denver");
+        assertThat(snapshot.firstName(snapshot.rowOf(changed.getId()))).isEqualTo("Snap");
+    }
+
+    @Test
+    void loadsGeneratedRepositoryCatalog() {
+        Map<Class<?>, RepositoryCatalog> catalogs = new HashMap<>();
+        ServiceLoader.load(RepositoryCatalog.class).forEach(catalog -> catalogs.put(catalog.repositoryType(), catalog));
+
+        assertThat(catalogs).containsKeys(PeopleRepository.class, AddressRepository.class);
+        RepositoryCatalog people = catalogs.get(PeopleRepository.class);
+        assertThat(people.entityType()).isEqualTo(Person.class);
+        assertThat(people.sql().get(CrudOperation.DELETE)).isEqualTo("DELETE FROM PEOPLE WHERE ID = ?");
+        assertThat(people.sql().get(CrudOperation.FIND_BY_IDS)).endsWith("WHERE P.ID = ANY(?)");
+    }
+
+    @Test
+    void canCrudWithMappedRepository() {
+        MappedRepository<Address> addresses = new MappedRepository<>(Address.class, connection);
+        Address saved = addresses.save(new Address("1 Main St.", null, "Boston", "MA", "02101", "United States", "Suffolk County", Region.NORTHEAST));
+
+        addresses.update(new Address(saved.id(), "2 Main St.", "apt. 2", "Boston", "MA", "02101", "United States", "Suffolk County", Region.NORTHEAST));
+        Address found = addresses.findById(saved.id()).get();
+
+        assertThat(found.streetAddress()).isEqualTo("2 Main St.");
+        assertThat(found.address2()).isEqualTo("apt. 2");
+        assertThat(found.region()).isEqualTo(Region.NORTHEAST);
+        assertThat(found.county()).isEqualTo("Suffolk County");
+
+        MappedRepository<Person> people = new MappedRepository<>(Person.class, connection);
+        Person person = new Person("Flat", "Person", ZonedDateTime.of(1990, 5, 6, 7, 8, 9, 0, ZoneId.of("+0")));
+        person.setSalary(new BigDecimal("1234.50"));
+        people.save(person);
+        Person flat = people.findById(person.getId()).get();
+
+        assertThat(flat.getDob()).isEqualTo(person.getDob());
+        assertThat(flat.getSalary()).isEqualByComparingTo("1234.50");
+        assertThat(repo.findById(person.getId()).get().getFirstName()).isEqualTo("Flat");
+        people.delete(flat);
+        assertThat(people.findById(person.getId())).isEmpty();
+    }
+
     @Test
     void canDelete() {
         Person savedPerson = repo.save(new Person("test", "jackson", ZonedDateTime.now().withZoneSameInstant(ZoneId.of("+0"))));
@@ -152,6 +684,175 @@ public class PeopleRepositoryTests {
         repo.delete(person1, person2);
     }
 
+    @Test
+    void canDeleteAllByIdInChunks() {
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            ids.add(repo.save(new Person("test" + i, "jackson", ZonedDateTime.now().withZoneSameInstant(ZoneId.of("+0")))).getId());
+        }
+
+        int deleted = repo.deleteAllById(List.of(ids.get(0), ids.get(1), ids.get(2), ids.get(2), -1L), 2);
+
+        assertThat(deleted).isEqualTo(3);
+        assertThat(repo.findAllById(ids)).containsOnlyKeys(ids.get(3), ids.get(4));
+    }
+
+    @Test
+    void canDeleteAddresses() {
+        AddressRepository addresses = new AddressRepository(connection);
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            ids.add(addresses.save(new Address("Street " + i, null, "Boston", "MA", "02101", "United States", "Suffolk County", Region.NORTHEAST)).id());
+        }
+
+        addresses.delete(addresses.findById(ids.get(0)).get());
+
+        assertThat(addresses.findById(ids.get(0))).isEmpty();
+        assertThat(addresses.deleteAllById(ids)).isEqualTo(2);
+        assertThat(addresses.findAllById(ids)).isEmpty();
+    }
+
+    @Test
+    void canUpsertAddresses() {
+        AddressRepository addresses = new AddressRepository(connection);
+        Address saved = addresses.save(new Address("1 Main St.", null, "Boston", "MA", "02101", "United States", "Suffolk County", Region.NORTHEAST));
+        Address moved = new Address(saved.id(), "2 Main St.", null, "Boston", "MA", "02101", "United States", "Suffolk County", Region.NORTHEAST);
+
+        assertThat(addresses.saveOrUpdate(moved)).isEqualTo(UpsertOutcome.UPDATED);
+        assertThat(addresses.findById(saved.id()).get().streetAddress()).isEqualTo("2 Main St.");
+    }
+
+    @Test
+    void canDeleteWhereInChunks() throws SQLException {
+        // the database is shared, there may be rows left by other runs
+        long purgeBefore = countPeople("FIRST_NAME = 'purge'");
+        for (int i = 0; i < 7; i++) {
+            repo.save(new Person("purge", "jackson" + i, ZonedDateTime.now().withZoneSameInstant(ZoneId.of("+0"))));
+        }
+        Person kept = repo.save(new Person("keep", "jackson", ZonedDateTime.now().withZoneSameInstant(ZoneId.of("+0"))));
+
+        long deleted = repo.deleteWhere("FIRST_NAME = ?", List.of("purge"), 3);
+
+        assertThat(deleted).isEqualTo(purgeBefore + 7);
+        assertThat(repo.findById(kept.getId())).isPresent();
+        assertThat(repo.deleteWhere("FIRST_NAME = ?", "purge")).isZero();
+    }
+
+    private long countPeople(String predicate) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM PEOPLE WHERE " + predicate)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    @Test
+    void canUpsertByIdAndByEmail() {
+        Person existing = repo.save(new Person("Ann", "Old", ZonedDateTime.of(1980, 1, 1, 0, 0, 0, 0, ZoneId.of("+0"))));
+        existing.setEmail("ann@upsert.test");
+        existing.setLastName("New");
+        Person fresh = new Person("Bob", "Fresh", ZonedDateTime.of(1981, 1, 1, 0, 0, 0, 0, ZoneId.of("+0")));
+
+        assertThat(repo.upsertAll(List.of(existing, fresh))).containsExactly(UpsertOutcome.UPDATED, UpsertOutcome.INSERTED);
+        assertThat(fresh.getId()).isPositive();
+        assertThat(repo.findById(existing.getId()).get().getLastName()).isEqualTo("New");
+
+        Person byEmail = new Person("Ann", "Newest", ZonedDateTime.of(1980, 1, 1, 0, 0, 0, 0, ZoneId.of("+0")));
+        byEmail.setEmail("ann@upsert.test");
+        Person newByEmail = new Person("Cid", "Other", ZonedDateTime.of(1982, 1, 1, 0, 0, 0, 0, ZoneId.of("+0")));
+        newByEmail.setEmail("cid@upsert.test");
+        repo.setBatchSize(1);
+
+        assertThat(repo.upsertAllByKey(List.of(byEmail, newByEmail))).containsExactly(UpsertOutcome.UPDATED, UpsertOutcome.INSERTED);
+        assertThat(byEmail.getId()).isEqualTo(existing.getId());
+        assertThat(repo.findById(newByEmail.getId()).get().getEmail()).isEqualTo("cid@upsert.test");
+        assertThat(repo.saveOrUpdateByKey(newByEmail)).isEqualTo(UpsertOutcome.UPDATED);
+    }
+
+    @Test
+    void canUpdateOnlyChangedColumns() {
+        RepositoryMetrics metrics = new RepositoryMetrics();
+        repo.setMetrics(metrics);
+        Person saved = repo.save(new Person("Dirty", "Check", ZonedDateTime.of(1985, 3, 4, 5, 6, 7, 0, ZoneId.of("+0"))));
+        Person first = repo.findById(saved.getId()).get();
+        Person second = repo.findById(saved.getId()).get();
+
+        first.setSalary(new BigDecimal("5000.00"));
+        second.setEmail("dirty@check.test");
+        assertThat(second.getDirtyFields()).containsExactly(Person.Field.EMAIL);
+        repo.update(first);
+        repo.update(second);
+        second.setFirstName("Dirty");
+        repo.update(second);
+
+        Person found = repo.findById(saved.getId()).get();
+        assertThat(found.getSalary()).isEqualByComparingTo("5000.00");
+        assertThat(found.getEmail()).isEqualTo("dirty@check.test");
+        assertThat(second.getDirtyFields()).isEmpty();
+        assertThat(metrics.stats(Person.class, "update").get().calls()).isEqualTo(2);
+    }
+
+    @Test
+    void failsUpdateOfStaleVersion() throws SQLException {
+        try (Connection memory = DriverManager.getConnection("jdbc:h2:mem:versioned")) {
+            memory.createStatement().execute("CREATE TABLE ACCOUNT (ID BIGINT AUTO_INCREMENT PRIMARY KEY, OWNER VARCHAR(255), BALANCE DECIMAL(15,2), VERSION BIGINT)");
+            MappedRepository<Account> accounts = new MappedRepository<>(Account.class, memory);
+            Account account = accounts.save(new Account("Ann", new BigDecimal("10.00")));
+            Account stale = accounts.findById(account.getId()).get();
+
+            account.balance = new BigDecimal("20.00");
+            accounts.update(account);
+            stale.balance = new BigDecimal("30.00");
+
+            assertThat(account.version).isEqualTo(1);
+            assertThatThrownBy(() -> accounts.update(stale)).isInstanceOf(OptimisticLockException.class);
+            assertThat(accounts.findById(account.getId()).get().balance).isEqualByComparingTo("20.00");
+        }
+    }
+
+    @Table("ACCOUNT")
+    static class Account implements Entity {
+        @Id
+        private long id;
+        @Column
+        private String owner;
+        @Column
+        private BigDecimal balance;
+        @Version
+        private long version;
+
+        private Account() {
+        }
+
+        Account(String owner, BigDecimal balance) {
+            this.owner = owner;
+            this.balance = balance;
+        }
+
+        @Override
+        public Long getId() {
+            return id;
+        }
+
+        @Override
+        public void setId(long id) {
+            this.id = id;
+        }
+    }
+
+    @Test
+    void canUpdatePersonWithoutDob() {
+        Person saved = repo.save(new Person("Has", "Dob", ZonedDateTime.of(1990, 1, 1, 0, 0, 0, 0, ZoneId.of("+0"))));
+        Person withoutDob = new Person("No", "Dob2", null);
+        withoutDob.setId(saved.getId());
+
+        repo.update(withoutDob);
+
+        Person found = repo.findById(saved.getId()).get();
+        assertThat(found.getLastName()).isEqualTo("Dob2");
+        assertThat(found.getDob()).isNull();
+    }
+
     @Test
     void canUpdate() {
 